@@ -0,0 +1,108 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import preprocess.Analyzer;
+import preprocess.Stemmer;
+import preprocess.TokenFilter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost per token of the analysis steps that run on every token of the collection: re-tokenizing with
+ * `preprocess.TokenFilter`, stemming with `preprocess.Stemmer`, both with and without their caches, and the whole fast
+ * analyzer on the text of a document. The cached variants measure a warm cache, as it is after the first documents of
+ * a collection.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class AnalysisBenchmark {
+    private String[] tokens;
+
+    /**
+     * The tokens the filter leaves, lower case, as the stemmer receives them.
+     */
+    private String[] words;
+
+    private String text;
+
+    private final TokenFilter filter = new TokenFilter();
+    private final Stemmer stemmer = new Stemmer();
+    private final Analyzer analyzer = Analyzer.forName("fast");
+    private final List<String> output = new ArrayList<>();
+
+    @Setup
+    public void setUp() throws IOException {
+        this.tokens = Fixtures.generate(null).rawTokens();
+        List<String> words = new ArrayList<>();
+        for (String token : this.tokens) {
+            this.filter.filter(token.toLowerCase(), words);
+        }
+        this.words = words.toArray(new String[0]);
+        this.text = String.join(" ", this.tokens);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Fixtures.NUMBER_OF_TOKENS)
+    public int filter() {
+        this.output.clear();
+        int count = 0;
+        for (String token : this.tokens) {
+            count += this.filter.filter(token, this.output);
+        }
+        return count;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Fixtures.NUMBER_OF_TOKENS)
+    public void filterCached(Blackhole blackhole) {
+        for (String token : this.tokens) {
+            blackhole.consume(TokenFilter.filter(token));
+        }
+    }
+
+    /**
+     * Runs over the words the filter leaves, which are a few more than the tokens; the cost per token is normalized
+     * by the number of tokens all the same.
+     */
+    @Benchmark
+    @OperationsPerInvocation(Fixtures.NUMBER_OF_TOKENS)
+    public void stem(Blackhole blackhole) {
+        for (String word : this.words) {
+            blackhole.consume(this.stemmer.stem(word));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Fixtures.NUMBER_OF_TOKENS)
+    public void stemCached(Blackhole blackhole) {
+        for (String word : this.words) {
+            blackhole.consume(Stemmer.stemWord(word));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Fixtures.NUMBER_OF_TOKENS)
+    public List<String> analyze() {
+        this.output.clear();
+        this.analyzer.analyze(this.text, this.output);
+        return this.output;
+    }
+}
@@ -0,0 +1,80 @@
+package benchmark;
+
+import index.Compression;
+import index.PostingsCodec;
+import index.PostingsEntry;
+import index.SPIMI;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import util.BitWriter;
+import util.Utils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the encode paths of `index.Compression` for every codec: encoding all posting lists of the synthetic
+ * collection in memory, which isolates the codec, and writing the whole compressed index to disk with front coding,
+ * which adds the dictionary, the document information and the block maxima.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class CompressionBenchmark {
+    @Param({"gamma", "delta", "pfor"})
+    public String codec;
+
+    private SPIMI index;
+    private PostingsEntry[] postings;
+    private PostingsCodec postingsCodec;
+    private final BitWriter writer = new BitWriter();
+    private Path folder;
+
+    @Setup
+    public void setUp() throws IOException {
+        this.index = Fixtures.generate(null).buildIndex();
+        List<PostingsEntry> postings = new ArrayList<>();
+        for (Map.Entry<String, PostingsEntry> entry : this.index.entries()) {
+            postings.add(entry.getValue());
+        }
+        this.postings = postings.toArray(new PostingsEntry[0]);
+        this.postingsCodec = PostingsCodec.forName(this.codec);
+        this.folder = Fixtures.createFolder("compression");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Fixtures.deleteFolder(this.folder);
+    }
+
+    @Benchmark
+    public void encodePostings(Blackhole blackhole) {
+        for (PostingsEntry p : this.postings) {
+            blackhole.consume(Utils.compressedPostingListToBytes(p, this.postingsCodec, this.writer));
+        }
+    }
+
+    @Benchmark
+    public void writeCompressedIndex() throws IOException {
+        new Compression(this.index, this.folder.toString()).createCompressedIndex(8, this.codec, true);
+    }
+}
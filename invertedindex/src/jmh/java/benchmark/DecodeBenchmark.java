@@ -0,0 +1,99 @@
+package benchmark;
+
+import index.Compression;
+import index.IndexReader;
+import index.PostingsIterator;
+import index.SPIMI;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of decoding the posting lists of an index on disk, per format: iterating over every posting of every term, as
+ * the vector space model does, and advancing through the posting lists with long jumps, as WAND does, which decodes
+ * only the blocks that hold a target. With a block cache, the decoded blocks of all terms fit in the cache, so after
+ * warmup this measures reading cached blocks.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class DecodeBenchmark {
+    @Param({"uncompressed", "gamma", "delta", "pfor"})
+    public String format;
+
+    /**
+     * Size of the `index.BlockCache` in MB, 0 for no cache; the uncompressed index has no blocks to cache.
+     */
+    @Param({"0", "64"})
+    public int blockCacheMegabytes;
+
+    private Path folder;
+    private IndexReader reader;
+
+    @Setup
+    public void setUp() throws IOException {
+        SPIMI index = Fixtures.generate(null).buildIndex();
+        this.folder = Fixtures.createFolder("decode");
+        Compression compression = new Compression(index, this.folder.toString());
+        String name;
+        if (this.format.equals("uncompressed")) {
+            compression.createUncompressedIndex();
+            name = "uncompressed";
+        } else {
+            compression.createCompressedIndex(8, this.format, true);
+            name = "compressed." + this.format + ".frontcoding";
+        }
+        this.reader = new IndexReader(this.folder.toString(), name, (long) this.blockCacheMegabytes << 20);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Fixtures.deleteFolder(this.folder);
+    }
+
+    @Benchmark
+    public long nextDoc() {
+        long sum = 0;
+        for (int termId = 0; termId < this.reader.getNumberOfTerms(); termId++) {
+            PostingsIterator postings = this.reader.getPostings(termId);
+            for (int docId = postings.nextDoc(); docId != PostingsIterator.NO_MORE_DOCS; docId = postings.nextDoc()) {
+                sum += postings.tf();
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Advances every posting list by a tenth of the collection at a time.
+     */
+    @Benchmark
+    public long advance() {
+        long sum = 0;
+        int step = Fixtures.NUMBER_OF_DOCUMENTS / 10;
+        for (int termId = 0; termId < this.reader.getNumberOfTerms(); termId++) {
+            PostingsIterator postings = this.reader.getPostings(termId);
+            for (int docId = postings.advance(step); docId != PostingsIterator.NO_MORE_DOCS;
+                 docId = postings.advance(docId + step)) {
+                sum += postings.tf();
+            }
+        }
+        return sum;
+    }
+}
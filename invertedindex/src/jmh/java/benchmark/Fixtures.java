@@ -0,0 +1,250 @@
+package benchmark;
+
+import index.SPIMI;
+import preprocess.Analyzer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * A synthetic collection for the benchmarks, generated from a fixed seed so that every run measures the same data and
+ * no collection needs to be downloaded. Words are made of random syllables with common English suffixes, and the
+ * documents draw them from a Zipf distribution, like the words of a real collection. The terms of the queries are
+ * mixed into the vocabulary at frequent and rare ranks, so that the queries of `hw.queries.formatted` find documents.
+ */
+public class Fixtures {
+    static final long SEED = 42;
+
+    static final int NUMBER_OF_DOCUMENTS = 2000;
+
+    /**
+     * Number of terms of every document, so that the number of postings inverted per invocation is fixed.
+     */
+    static final int DOCUMENT_LENGTH = 150;
+
+    static final int VOCABULARY_SIZE = 20000;
+
+    static final int NUMBER_OF_QUERIES = 20;
+
+    /**
+     * Number of raw tokens the analysis benchmarks run over per invocation.
+     */
+    static final int NUMBER_OF_TOKENS = 10000;
+
+    private static final String[] SYLLABLES = {"ba", "co", "de", "fi", "ga", "lo", "ma", "ne", "pi", "ro", "sa", "te",
+            "vi", "ar", "en", "on", "ur", "ex", "st", "tr", "pl", "fl", "th", "ch"};
+
+    private static final String[] SUFFIXES = {"", "", "", "s", "ed", "ing", "ation", "ness", "ly", "ity", "ize"};
+
+    /**
+     * Terms of the collection, the most frequent first.
+     */
+    final String[] vocabulary;
+
+    /**
+     * Documents as the terms they are made of, by their position in the vocabulary.
+     */
+    final int[][] documents;
+
+    /**
+     * Texts of the queries.
+     */
+    final List<String> queries;
+
+    private Fixtures(String[] vocabulary, int[][] documents, List<String> queries) {
+        this.vocabulary = vocabulary;
+        this.documents = documents;
+        this.queries = queries;
+    }
+
+    /**
+     * Generates the collection.
+     *
+     * @param queryFile file with a query per line, `hw.queries.formatted`; synthetic queries are used if it does not
+     *                  exist
+     * @return the collection
+     * @throws IOException
+     */
+    static Fixtures generate(String queryFile) throws IOException {
+        Random random = new Random(SEED);
+        List<String> queries = new ArrayList<>();
+        if (queryFile != null && Files.isRegularFile(Paths.get(queryFile))) {
+            for (String line : Files.readAllLines(Paths.get(queryFile), StandardCharsets.UTF_8)) {
+                if (!line.trim().isEmpty() && queries.size() < NUMBER_OF_QUERIES) {
+                    queries.add(line);
+                }
+            }
+        }
+
+        // the terms of the queries as the fast analyzer indexes them
+        Analyzer analyzer = Analyzer.forName("fast");
+        List<String> queryTerms = new ArrayList<>();
+        for (String query : queries) {
+            analyzer.analyze(query, queryTerms);
+        }
+        Set<String> words = new LinkedHashSet<>();
+        while (words.size() < VOCABULARY_SIZE) {
+            words.add(randomWord(random));
+        }
+        List<String> vocabulary = new ArrayList<>(words);
+        vocabulary.removeAll(queryTerms);
+        // spread over the ranks on a log scale, from frequent terms to terms of a few documents
+        List<String> distinctQueryTerms = new ArrayList<>(new LinkedHashSet<>(queryTerms));
+        for (int i = 0; i < distinctQueryTerms.size(); i++) {
+            double fraction = (double) i / distinctQueryTerms.size();
+            int rank = (int) (10 * Math.pow(VOCABULARY_SIZE / 10.0, fraction));
+            vocabulary.add(Math.min(rank, vocabulary.size()), distinctQueryTerms.get(i));
+        }
+
+        double[] cumulative = zipf(vocabulary.size());
+        int[][] documents = new int[NUMBER_OF_DOCUMENTS][DOCUMENT_LENGTH];
+        for (int[] document : documents) {
+            for (int i = 0; i < DOCUMENT_LENGTH; i++) {
+                document[i] = sample(cumulative, random);
+            }
+        }
+
+        // pad the queries with synthetic ones made of the more frequent terms
+        while (queries.size() < NUMBER_OF_QUERIES) {
+            StringBuilder query = new StringBuilder();
+            for (int i = 0; i < 8; i++) {
+                query.append(vocabulary.get(random.nextInt(2000))).append(' ');
+            }
+            queries.add(query.toString().trim());
+        }
+        return new Fixtures(vocabulary.toArray(new String[0]), documents, queries);
+    }
+
+    private static String randomWord(Random random) {
+        StringBuilder word = new StringBuilder();
+        int syllables = 2 + random.nextInt(3);
+        for (int i = 0; i < syllables; i++) {
+            word.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+        }
+        return word.append(SUFFIXES[random.nextInt(SUFFIXES.length)]).toString();
+    }
+
+    /**
+     * @return cumulative probabilities of the ranks of a Zipf distribution with exponent 1
+     */
+    private static double[] zipf(int size) {
+        double[] cumulative = new double[size];
+        double sum = 0;
+        for (int i = 0; i < size; i++) {
+            sum += 1.0 / (i + 1);
+            cumulative[i] = sum;
+        }
+        for (int i = 0; i < size; i++) {
+            cumulative[i] /= sum;
+        }
+        return cumulative;
+    }
+
+    private static int sample(double[] cumulative, Random random) {
+        int i = Arrays.binarySearch(cumulative, random.nextDouble());
+        return Math.min(i < 0 ? -1 - i : i, cumulative.length - 1);
+    }
+
+    /**
+     * @return the terms of every document
+     */
+    String[][] documentTerms() {
+        String[][] terms = new String[this.documents.length][];
+        for (int d = 0; d < this.documents.length; d++) {
+            terms[d] = new String[this.documents[d].length];
+            for (int i = 0; i < this.documents[d].length; i++) {
+                terms[d][i] = this.vocabulary[this.documents[d][i]];
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * Indexes the collection in memory, with doc ids from 1.
+     *
+     * @return the index
+     * @throws IOException
+     */
+    SPIMI buildIndex() throws IOException {
+        SPIMI index = new SPIMI();
+        String[][] terms = documentTerms();
+        for (int d = 0; d < terms.length; d++) {
+            for (String term : terms[d]) {
+                index.invert(term, d + 1);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Raw tokens, as a tokenizer would hand them to `preprocess.TokenFilter` and `preprocess.Stemmer`: mostly words of
+     * the collection, with acronyms, dashed words, numbers and capitals mixed in.
+     *
+     * @return `NUMBER_OF_TOKENS` tokens
+     */
+    String[] rawTokens() {
+        Random random = new Random(SEED + 1);
+        double[] cumulative = zipf(this.vocabulary.length);
+        String[] tokens = new String[NUMBER_OF_TOKENS];
+        for (int i = 0; i < tokens.length; i++) {
+            String word = this.vocabulary[sample(cumulative, random)];
+            switch (random.nextInt(20)) {
+                case 0:
+                    tokens[i] = "u.s.a.";
+                    break;
+                case 1:
+                    tokens[i] = word + "-" + random.nextInt(200);
+                    break;
+                case 2:
+                    tokens[i] = random.nextInt(100) + "." + random.nextInt(10) + word;
+                    break;
+                case 3:
+                    tokens[i] = word + "-" + this.vocabulary[sample(cumulative, random)];
+                    break;
+                case 4:
+                    tokens[i] = Character.toUpperCase(word.charAt(0)) + word.substring(1);
+                    break;
+                default:
+                    tokens[i] = word;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * @param prefix prefix of the name of the folder
+     * @return a new temporary folder
+     * @throws IOException
+     */
+    static Path createFolder(String prefix) throws IOException {
+        return Files.createTempDirectory(prefix);
+    }
+
+    /**
+     * Deletes a folder and everything in it.
+     *
+     * @param folder folder to delete
+     * @throws IOException
+     */
+    static void deleteFolder(Path folder) throws IOException {
+        if (folder == null || !Files.exists(folder)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(folder)) {
+            for (Path p : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(p);
+            }
+        }
+    }
+}
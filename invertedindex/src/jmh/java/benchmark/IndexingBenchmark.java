@@ -0,0 +1,48 @@
+package benchmark;
+
+import index.SPIMI;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of `SPIMI.invert` per term-doc pair, indexing the synthetic collection into a new index held in memory. The
+ * dictionary and the posting lists are built from scratch in every invocation, so the cost includes their growth.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class IndexingBenchmark {
+    private String[][] documents;
+
+    @Setup
+    public void setUp() throws IOException {
+        this.documents = Fixtures.generate(null).documentTerms();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Fixtures.NUMBER_OF_DOCUMENTS * Fixtures.DOCUMENT_LENGTH)
+    public SPIMI invert() throws IOException {
+        SPIMI index = new SPIMI();
+        for (int d = 0; d < this.documents.length; d++) {
+            for (String term : this.documents[d]) {
+                index.invert(term, d + 1);
+            }
+        }
+        return index;
+    }
+}
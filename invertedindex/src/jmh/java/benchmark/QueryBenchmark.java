@@ -0,0 +1,86 @@
+package benchmark;
+
+import index.Compression;
+import index.IndexReader;
+import index.SPIMI;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import search.QueryAnalyzer;
+import search.QueryParser;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency per query of `QueryParser.vectorSpaceModel`, with block-max WAND for comparison, over the queries of
+ * `hw.queries.formatted` on the pfor index of the synthetic collection. The queries are analyzed once, in the setup,
+ * so only scoring is measured. The query file is looked up in the working folder and its parent; synthetic queries
+ * take its place if it is not found.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class QueryBenchmark {
+    @Param({"w1", "w2"})
+    public String weightFunction;
+
+    private Path folder;
+    private QueryParser[] queries;
+
+    @Setup
+    public void setUp() throws IOException {
+        String queryFile = "hw.queries.formatted";
+        if (!new File(queryFile).exists()) {
+            queryFile = "../hw.queries.formatted";
+        }
+        Fixtures fixtures = Fixtures.generate(queryFile);
+        SPIMI index = fixtures.buildIndex();
+        this.folder = Fixtures.createFolder("query");
+        new Compression(index, this.folder.toString()).createCompressedIndex(8, "pfor", true);
+        IndexReader reader = new IndexReader(this.folder.toString(), "compressed.pfor.frontcoding");
+        QueryAnalyzer analyzer = new QueryAnalyzer(reader, 1, "fast");
+        this.queries = new QueryParser[fixtures.queries.size()];
+        for (int i = 0; i < this.queries.length; i++) {
+            this.queries[i] = analyzer.parse(fixtures.queries.get(i));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Fixtures.deleteFolder(this.folder);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Fixtures.NUMBER_OF_QUERIES)
+    public void vectorSpaceModel(Blackhole blackhole) {
+        for (QueryParser query : this.queries) {
+            blackhole.consume(query.vectorSpaceModel(10, this.weightFunction));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Fixtures.NUMBER_OF_QUERIES)
+    public void blockMaxWand(Blackhole blackhole) {
+        for (QueryParser query : this.queries) {
+            blackhole.consume(query.blockMaxWand(10, this.weightFunction));
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package index;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps decoded blocks of the compressed posting lists of an `index.IndexReader`, so that the blocks of frequent terms,
+ * which most queries read, are not decoded again by every query. A block is kept as the arrays of its doc ids and term
+ * frequencies, keyed by term id and block number.
+ * <p>
+ * The cache holds up to a maximum number of bytes, the estimated heap size of the arrays and of their entry. It evicts
+ * blocks with the CLOCK algorithm, an approximation of LRU: a hit only marks its block as referenced, and the eviction
+ * hand gives referenced blocks a second chance and evicts the first block that has not been referenced since the hand
+ * last passed it. Hits are therefore a lookup in a `ConcurrentHashMap` without a lock, which keeps the cache cheap
+ * enough to sit on the path of every block a query decodes; only adding a block takes the lock of the clock.
+ */
+public class BlockCache {
+    /**
+     * Estimated heap size of an entry besides the arrays: the entry of the map, the key, the block and the arrays'
+     * headers, and its slot in the clock.
+     */
+    private static final int BYTES_PER_BLOCK = 128;
+
+    private final long maximumBytes;
+    private final ConcurrentHashMap<Long, Block> blocks = new ConcurrentHashMap<>();
+
+    /**
+     * Keys of the cached blocks in the order of the clock, the hand is at the head.
+     */
+    private final ArrayDeque<Long> clock = new ArrayDeque<>();
+
+    private long bytes = 0;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maximumBytes estimated heap size the cached blocks may take
+     */
+    public BlockCache(long maximumBytes) {
+        this.maximumBytes = maximumBytes;
+    }
+
+    /**
+     * A decoded block of postings. The arrays hold exactly the postings of the block and must not be modified.
+     */
+    static class Block {
+        final int[] docIds;
+        final int[] tfs;
+
+        /**
+         * Whether the block has been hit since the hand of the clock last passed it.
+         */
+        volatile boolean referenced = false;
+
+        Block(int[] docIds, int[] tfs) {
+            this.docIds = docIds;
+            this.tfs = tfs;
+        }
+
+        long bytes() {
+            return BYTES_PER_BLOCK + 8L * this.docIds.length;
+        }
+    }
+
+    private static Long key(int termId, int block) {
+        return ((long) termId << 32) | block;
+    }
+
+    /**
+     * @param termId term id
+     * @param block  number of the block in the posting list of the term
+     * @return the decoded block, or null if it is not cached
+     */
+    Block get(int termId, int block) {
+        Block cached = this.blocks.get(key(termId, block));
+        if (cached == null) {
+            this.misses.increment();
+            return null;
+        }
+        if (!cached.referenced) {
+            cached.referenced = true;
+        }
+        this.hits.increment();
+        return cached;
+    }
+
+    /**
+     * Adds a decoded block, evicting blocks until it fits. A block that another thread added first is kept.
+     *
+     * @param termId term id
+     * @param block  number of the block in the posting list of the term
+     * @param docIds doc ids of the block, which the cache takes ownership of
+     * @param tfs    term frequencies of the block, which the cache takes ownership of
+     */
+    void put(int termId, int block, int[] docIds, int[] tfs) {
+        Block decoded = new Block(docIds, tfs);
+        if (decoded.bytes() > this.maximumBytes) {
+            return;
+        }
+        Long key = key(termId, block);
+        synchronized (this.clock) {
+            if (this.blocks.putIfAbsent(key, decoded) != null) {
+                return;
+            }
+            this.clock.addLast(key);
+            this.bytes += decoded.bytes();
+            // every block gets at most one second chance per sweep, so two sweeps always find a victim
+            int sweep = 2 * this.clock.size();
+            while (this.bytes > this.maximumBytes) {
+                Long candidate = this.clock.pollFirst();
+                Block victim = this.blocks.get(candidate);
+                if (victim.referenced && sweep-- > 0) {
+                    victim.referenced = false;
+                    this.clock.addLast(candidate);
+                } else {
+                    this.blocks.remove(candidate);
+                    this.bytes -= victim.bytes();
+                    this.evictions.increment();
+                }
+            }
+        }
+    }
+
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    public long getEvictions() {
+        return this.evictions.sum();
+    }
+
+    /**
+     * @return number of cached blocks
+     */
+    public int size() {
+        return this.blocks.size();
+    }
+
+    /**
+     * @return estimated heap size of the cached blocks
+     */
+    public long getBytes() {
+        synchronized (this.clock) {
+            return this.bytes;
+        }
+    }
+
+    /**
+     * @return the statistics of the cache in the Prometheus text format
+     */
+    public String toPrometheus() {
+        return "# TYPE postings_block_cache_hits_total counter\npostings_block_cache_hits_total " + getHits() + "\n" +
+                "# TYPE postings_block_cache_misses_total counter\npostings_block_cache_misses_total " + getMisses() +
+                "\n" +
+                "# TYPE postings_block_cache_evictions_total counter\npostings_block_cache_evictions_total " +
+                getEvictions() + "\n" +
+                "# TYPE postings_block_cache_blocks gauge\npostings_block_cache_blocks " + size() + "\n" +
+                "# TYPE postings_block_cache_bytes gauge\npostings_block_cache_bytes " + getBytes() + "\n";
+    }
+
+    @Override
+    public String toString() {
+        return "index.BlockCache{" +
+                "size=" + size() +
+                ", bytes=" + getBytes() +
+                ", hits=" + getHits() +
+                ", misses=" + getMisses() +
+                ", evictions=" + getEvictions() +
+                '}';
+    }
+}
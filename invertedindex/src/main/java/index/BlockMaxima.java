@@ -0,0 +1,168 @@
+package index;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * Upper bounds on the score contribution of a term, used for dynamic pruning (WAND and Block-Max WAND). The posting
+ * list of the term is split into blocks of `BLOCK_SIZE` postings; for every block the largest doc id and the largest
+ * normalized weight `w / norm` of the postings in the block are kept, for the w1 and the w2 weighting. The maxima are
+ * rounded up to floats, so they are never below the exact weights.
+ */
+public class BlockMaxima {
+    /**
+     * Number of postings in a block.
+     */
+    public static final int BLOCK_SIZE = 128;
+
+    private final int[] lastDocIds;
+    private final float[] maximaW1;
+    private final float[] maximaW2;
+    private final float termMaximumW1;
+    private final float termMaximumW2;
+
+    public BlockMaxima(int[] lastDocIds, float[] maximaW1, float[] maximaW2) {
+        this.lastDocIds = lastDocIds;
+        this.maximaW1 = maximaW1;
+        this.maximaW2 = maximaW2;
+        this.termMaximumW1 = max(maximaW1);
+        this.termMaximumW2 = max(maximaW2);
+    }
+
+    /**
+     * Computes the block maxima of a posting list. The document norms must have been computed.
+     *
+     * @param postings  posting list of the term
+     * @param weighting weighting functions of the collection
+     * @param docInfo   document information with the document norms
+     * @return block maxima of the posting list
+     */
+    public static BlockMaxima compute(PostingsEntry postings, Weighting weighting, Map<Integer, DocumentInfo> docInfo) {
+        return compute(postings.iterator(), postings.getDocumentFrequency(), weighting, docInfo);
+    }
+
+    /**
+     * Computes the block maxima of a posting list read from a cursor. The document norms must have been computed.
+     *
+     * @param postings  cursor at the start of the posting list of the term
+     * @param df        document frequency of the term
+     * @param weighting weighting functions of the collection
+     * @param docInfo   document information with the document norms
+     * @return block maxima of the posting list
+     */
+    public static BlockMaxima compute(PostingsIterator postings, int df, Weighting weighting,
+                                      Map<Integer, DocumentInfo> docInfo) {
+        int numberOfBlocks = (df + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int[] lastDocIds = new int[numberOfBlocks];
+        float[] maximaW1 = new float[numberOfBlocks];
+        float[] maximaW2 = new float[numberOfBlocks];
+        for (int i = 0; i < df; i++) {
+            int docId = postings.nextDoc();
+            DocumentInfo doc = docInfo.get(docId);
+            int tf = postings.tf();
+            // a document whose norm is 0 gets a NaN score, and a NaN bound so that it is never pruned
+            double w1 = weighting.weight("w1", tf, df, doc) / doc.getNorm("w1");
+            double w2 = weighting.weight("w2", tf, df, doc) / doc.getNorm("w2");
+            int block = i / BLOCK_SIZE;
+            if (i % BLOCK_SIZE == 0) {
+                maximaW1[block] = roundUp(w1);
+                maximaW2[block] = roundUp(w2);
+            } else {
+                maximaW1[block] = Math.max(maximaW1[block], roundUp(w1));
+                maximaW2[block] = Math.max(maximaW2[block], roundUp(w2));
+            }
+            lastDocIds[block] = docId;
+        }
+        return new BlockMaxima(lastDocIds, maximaW1, maximaW2);
+    }
+
+    /**
+     * Reads the block maxima written by `writeTo`.
+     *
+     * @param buffer   buffer to read from, only absolute reads are used
+     * @param position byte position of the block maxima
+     * @return block maxima of the posting list
+     */
+    public static BlockMaxima read(ByteBuffer buffer, int position) {
+        int numberOfBlocks = buffer.getInt(position);
+        int[] lastDocIds = new int[numberOfBlocks];
+        float[] maximaW1 = new float[numberOfBlocks];
+        float[] maximaW2 = new float[numberOfBlocks];
+        position += 4;
+        for (int i = 0; i < numberOfBlocks; i++) {
+            lastDocIds[i] = buffer.getInt(position);
+            maximaW1[i] = buffer.getFloat(position + 4);
+            maximaW2[i] = buffer.getFloat(position + 8);
+            position += 12;
+        }
+        return new BlockMaxima(lastDocIds, maximaW1, maximaW2);
+    }
+
+    /**
+     * Writes the number of blocks, followed by the last doc id, w1 maximum and w2 maximum of every block.
+     *
+     * @param out stream to write to
+     * @throws IOException
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(this.lastDocIds.length);
+        for (int i = 0; i < this.lastDocIds.length; i++) {
+            out.writeInt(this.lastDocIds[i]);
+            out.writeFloat(this.maximaW1[i]);
+            out.writeFloat(this.maximaW2[i]);
+        }
+    }
+
+    /**
+     * @return number of bytes written by `writeTo`
+     */
+    public int byteLength() {
+        return 4 + 12 * this.lastDocIds.length;
+    }
+
+    public int getNumberOfBlocks() {
+        return this.lastDocIds.length;
+    }
+
+    /**
+     * @param block block number
+     * @return largest doc id in the block
+     */
+    public int getLastDocId(int block) {
+        return this.lastDocIds[block];
+    }
+
+    /**
+     * @param weightFunction either w1 or w2
+     * @return maximum normalized weight of every block, must not be modified
+     */
+    public float[] getMaxima(String weightFunction) {
+        return weightFunction.equalsIgnoreCase("w1") ? this.maximaW1 : this.maximaW2;
+    }
+
+    /**
+     * @param weightFunction either w1 or w2
+     * @return maximum normalized weight of the term in any document
+     */
+    public float getTermMaximum(String weightFunction) {
+        return weightFunction.equalsIgnoreCase("w1") ? this.termMaximumW1 : this.termMaximumW2;
+    }
+
+    private static float max(float[] values) {
+        float result = 0;
+        for (float value : values) {
+            result = Math.max(result, value);
+        }
+        return result;
+    }
+
+    /**
+     * @return the smallest float that is not below `value`
+     */
+    private static float roundUp(double value) {
+        float result = (float) value;
+        return result < value ? Math.nextUp(result) : result;
+    }
+}
@@ -0,0 +1,170 @@
+package index;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Merges sorted blocks of the index into a single stream of (term, postings) pairs in lexicographical order of the
+ * terms. This is the final step of SPIMI: the blocks that were written to disk as sorted runs, and the block still in
+ * memory, are merged with a k-way merge using a heap of the current term of every block.
+ */
+class BlockMerger implements Iterator<Map.Entry<String, PostingsEntry>> {
+    /**
+     * Heap of blocks that still have terms left, ordered by their current term. Ties are broken by the position of
+     * the block, so that posting lists are merged in the order of the blocks.
+     */
+    private final PriorityQueue<Block> heap = new PriorityQueue<>((a, b) -> {
+        int cmp = a.term.compareTo(b.term);
+        return cmp != 0 ? cmp : Integer.compare(a.position, b.position);
+    });
+
+    /**
+     * @param runs     run files written by `writeRun`, in the order they were written
+     * @param inMemory (term, postings) pairs of the blocks held in memory, sorted by term, which follow the runs
+     */
+    BlockMerger(List<Path> runs, List<Iterable<Map.Entry<String, PostingsEntry>>> inMemory) {
+        int position = 0;
+        for (Path run : runs) {
+            addBlock(new RunBlock(run, position++));
+        }
+        for (Iterable<Map.Entry<String, PostingsEntry>> block : inMemory) {
+            addBlock(new MemoryBlock(block, position++));
+        }
+    }
+
+    /**
+     * Writes a block of the index to disk as a sorted run. The format is the number of terms, followed by the term,
+     * document frequency and (docId, tf) pairs for every term in the block.
+     *
+     * @param block         (term, postings) pairs of the block of the index, sorted by term
+     * @param numberOfTerms number of terms in the block
+     * @param run           run file to write
+     * @throws IOException
+     */
+    static void writeRun(Iterable<Map.Entry<String, PostingsEntry>> block, int numberOfTerms, Path run)
+            throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run)))) {
+            out.writeInt(numberOfTerms);
+            for (Map.Entry<String, PostingsEntry> entry : block) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().getDocumentFrequency());
+                PostingsEntry postings = entry.getValue();
+                for (int i = 0; i < postings.getDocumentFrequency(); i++) {
+                    out.writeInt(postings.getDocId(i));
+                    out.writeInt(postings.getTf(i));
+                }
+            }
+        }
+    }
+
+    private void addBlock(Block block) {
+        if (block.advance()) {
+            this.heap.add(block);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !this.heap.isEmpty();
+    }
+
+    @Override
+    public Map.Entry<String, PostingsEntry> next() {
+        if (this.heap.isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        Block first = this.heap.poll();
+        String term = first.term;
+        PostingsEntry postings = first.postings;
+        addBlock(first);
+        // merge the posting lists of the same term in the other blocks
+        while (!this.heap.isEmpty() && this.heap.peek().term.equals(term)) {
+            Block block = this.heap.poll();
+            postings = postings.merge(block.postings);
+            addBlock(block);
+        }
+        return new AbstractMap.SimpleImmutableEntry<>(term, postings);
+    }
+
+    /**
+     * A sorted block of the index, positioned at one of its terms.
+     */
+    private abstract static class Block {
+        final int position;
+        String term;
+        PostingsEntry postings;
+
+        Block(int position) {
+            this.position = position;
+        }
+
+        /**
+         * Moves to the next term of the block.
+         *
+         * @return false if there are no terms left
+         */
+        abstract boolean advance();
+    }
+
+    private static class MemoryBlock extends Block {
+        private final Iterator<Map.Entry<String, PostingsEntry>> entries;
+
+        MemoryBlock(Iterable<Map.Entry<String, PostingsEntry>> block, int position) {
+            super(position);
+            this.entries = block.iterator();
+        }
+
+        @Override
+        boolean advance() {
+            if (!this.entries.hasNext()) {
+                return false;
+            }
+            Map.Entry<String, PostingsEntry> entry = this.entries.next();
+            this.term = entry.getKey();
+            // postings are merged into the postings of the block with the lowest position, so a single block in
+            // memory after the runs is never modified; when several blocks in memory are merged, they are discarded
+            this.postings = entry.getValue();
+            return true;
+        }
+    }
+
+    private static class RunBlock extends Block {
+        private final Path run;
+        private DataInputStream in;
+        private int remaining;
+
+        RunBlock(Path run, int position) {
+            super(position);
+            this.run = run;
+        }
+
+        @Override
+        boolean advance() {
+            try {
+                if (this.in == null) {
+                    this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(this.run)));
+                    this.remaining = this.in.readInt();
+                }
+                if (this.remaining == 0) {
+                    this.in.close();
+                    return false;
+                }
+                this.term = this.in.readUTF();
+                int documentFrequency = this.in.readInt();
+                int[] docIds = new int[documentFrequency];
+                int[] tfs = new int[documentFrequency];
+                for (int i = 0; i < documentFrequency; i++) {
+                    docIds[i] = this.in.readInt();
+                    tfs[i] = this.in.readInt();
+                }
+                this.postings = new PostingsEntry(docIds, tfs, documentFrequency);
+                this.remaining--;
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not read run " + this.run, e);
+            }
+        }
+    }
+}
@@ -1,18 +1,26 @@
 package index;
 
+import util.BitWriter;
 import util.Utils;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Class to handle compression of indices.
@@ -42,79 +50,127 @@ public class Compression {
      * @throws IOException
      */
     private void docInfoToDisk(Path p) throws IOException {
-        try (OutputStream out = new BufferedOutputStream((Files.newOutputStream(p,
+        try (OutputStream out = newOutputStream(p)) {
+            // format: docId, maxTf, docLen - each 4 bytes, w1 norm, w2 norm - each 8 bytes, in order of doc id
+            for (Map.Entry<Integer, DocumentInfo> entry : new TreeMap<>(this.index.getDocInfo()).entrySet()) {
+                out.write(Utils.intToBytes(entry.getKey()));
+                out.write(entry.getValue().toBytes());
+            }
+        }
+    }
+
+    /**
+     * Writes the block maxima of every posting list to a binary file. The file starts with the number of terms and the
+     * byte offset of the block maxima of every term, in order of the dictionary, followed by the block maxima.
+     *
+     * @param p           Path to the binary file
+     * @param blockMaxima block maxima of every term, in order of the dictionary
+     * @throws IOException
+     */
+    private static void blockMaximaToDisk(Path p, List<BlockMaxima> blockMaxima) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(p,
                 StandardOpenOption.CREATE,
                 StandardOpenOption.TRUNCATE_EXISTING,
                 StandardOpenOption.WRITE)))) {
-            // format: docId, maxTf, docLen - each 4 bytes
-            for (Map.Entry<Integer, DocumentInfo> entry : this.index.getDocInfo().entrySet()) {
-                out.write(Utils.intToBytes(entry.getKey()));
-                out.write(entry.getValue().toBytes());
+            out.writeInt(blockMaxima.size());
+            int currentFilePosition = 4 + 4 * blockMaxima.size();
+            for (BlockMaxima b : blockMaxima) {
+                out.writeInt(currentFilePosition);
+                currentFilePosition += b.byteLength();
+            }
+            for (BlockMaxima b : blockMaxima) {
+                b.writeTo(out);
             }
         }
     }
 
+    private static OutputStream newOutputStream(Path p) throws IOException {
+        return new BufferedOutputStream(Files.newOutputStream(p,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE));
+    }
+
     /**
      * Writes the uncompressed index to a binary file. Terms in the dictionary are stored in fixed width strings.
      * A pointer file is created for deserializing the binary file. The pointer file has document frequency and
      * references to the terms and posting list.
+     * <p>
+     * The index is read in a single pass after the norms have been computed, since every pass over an index with runs
+     * on disk merges all runs again. The posting lists go to a temporary file while the terms are kept in memory, and
+     * the index file is written from both once the width of the longest term is known.
      *
      * @throws IOException
      */
     public void createUncompressedIndex() throws IOException {
         Path index = Paths.get(outFolder, "uncompressed.index");
         Path pointer = Paths.get(outFolder, "uncompressed.pointers");
+        Path postingsFile = Paths.get(outFolder, "uncompressed.postings.tmp");
 
         // write doc info
         docInfoToDisk(Paths.get(outFolder, "uncompressed.docinfo"));
 
+        Map<Integer, DocumentInfo> docInfo = this.index.getDocInfo();
+        Weighting weighting = Weighting.of(docInfo);
+        List<String> terms = new ArrayList<>();
+        List<Integer> documentFrequencies = new ArrayList<>();
+        List<Integer> postingLengths = new ArrayList<>();
+        List<BlockMaxima> blockMaxima = new ArrayList<>();
         // space occupied by the longest term in the dictionary
         int fixedWidth = 0;
-        for (String term : this.index.getInvertedIndex().keySet()) {
-            if (fixedWidth < term.length()) {
-                fixedWidth = term.length();
+        try (OutputStream postings = newOutputStream(postingsFile)) {
+            for (Map.Entry<String, PostingsEntry> entry : this.index.entries()) {
+                String term = entry.getKey();
+                fixedWidth = Math.max(fixedWidth, term.getBytes(StandardCharsets.UTF_8).length);
+                terms.add(term);
+                documentFrequencies.add(entry.getValue().getDocumentFrequency());
+                blockMaxima.add(BlockMaxima.compute(entry.getValue(), weighting, docInfo));
+                byte[] postingBytes = Utils.postingListToBytes(entry.getValue());
+                postings.write(postingBytes);
+                postingLengths.add(postingBytes.length);
             }
         }
+        blockMaximaToDisk(Paths.get(outFolder, "uncompressed.blockmax"), blockMaxima);
 
         // write to disk and store references to the terms and postings list
-        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(index,
-                StandardOpenOption.CREATE,
-                StandardOpenOption.TRUNCATE_EXISTING,
-                StandardOpenOption.WRITE));
-             OutputStream ref = new BufferedOutputStream(Files.newOutputStream(pointer,
-                     StandardOpenOption.CREATE,
-                     StandardOpenOption.TRUNCATE_EXISTING,
-                     StandardOpenOption.WRITE))) {
-            Integer termReference;
-            Integer postingsReference;
-            Integer currentFilePosition = 0;
-            for (Map.Entry<String, PostingsEntry> entry : this.index.getInvertedIndex().entrySet()) {
-                byte[] termBytes = Utils.stringToFixedWidthBytes(entry.getKey(), fixedWidth);
-                byte[] postingBytes = Utils.postingListToBytes(entry.getValue().getPostingsList());
-                byte[] documentFrequency = Utils.intToBytes(entry.getValue().getDocumentFrequency());
+        try (OutputStream out = newOutputStream(index);
+             OutputStream ref = newOutputStream(pointer);
+             DataInputStream postings = new DataInputStream(new BufferedInputStream(
+                     Files.newInputStream(postingsFile)))) {
+            // format of the pointer file: df, term reference, postings reference - each 4 bytes
+            int currentFilePosition = 0;
+            for (int i = 0; i < terms.size(); i++) {
+                byte[] termBytes = Utils.stringToFixedWidthBytes(terms.get(i), fixedWidth);
+                byte[] postingBytes = new byte[postingLengths.get(i)];
+                postings.readFully(postingBytes);
                 // update references to terms and postings
-                ref.write(documentFrequency);
-                currentFilePosition += documentFrequency.length;
-                termReference = currentFilePosition;
-                ref.write(Utils.intToBytes(termReference));
+                ref.write(Utils.intToBytes(documentFrequencies.get(i)));
+                ref.write(Utils.intToBytes(currentFilePosition));
                 currentFilePosition += termBytes.length;
-                postingsReference = currentFilePosition;
-                ref.write(Utils.intToBytes(postingsReference));
+                ref.write(Utils.intToBytes(currentFilePosition));
                 currentFilePosition += postingBytes.length;
                 // actually write the terms and postings
                 out.write(termBytes);
                 out.write(postingBytes);
             }
+        } finally {
+            Files.deleteIfExists(postingsFile);
         }
     }
 
     /**
      * Compresses the dictionary and postings list, and writes them to a binary file with pointers to term and posting
-     * list location.
+     * list location. The pointer file starts with the block size and the number of terms, followed by the document
+     * frequency and posting list pointer of every term, with a term pointer for the first term of every block.
+     * <p>
+     * The index is read in a single pass after the norms have been computed, since every pass over an index with runs
+     * on disk merges all runs again. The compressed dictionary, which comes first in the index file, is kept in memory
+     * while the posting lists go to a temporary file, which is appended to the dictionary at the end.
      *
      * @param blockSize          Uses blocking to save space on storing term pointers, stores term pointer to every
      *                           `blockSize`-th term
-     * @param compressionCode    Either "gamma" or "delta". Uses gamma codes and delta codes to compress the index
+     * @param compressionCode    Either "gamma", "delta" or "pfor", the `index.PostingsCodec` used to compress the
+     *                           posting lists. Gamma and delta codes are the smallest, pfor is the fastest to decode
      * @param frontCodingEnabled Frontcoding saves additional space by not storing common term prefixes repeatedly
      * @throws IOException
      */
@@ -127,72 +183,80 @@ public class Compression {
         if (frontCodingEnabled) {
             frontCodeText = ".frontcoding";
         }
+        String prefix = "compressed." + compressionCode + frontCodeText;
         // write doc info
-        docInfoToDisk(Paths.get(outFolder, "compressed." + compressionCode + frontCodeText + ".docinfo"));
+        docInfoToDisk(Paths.get(outFolder, prefix + ".docinfo"));
 
         // start writing the index
-        Path index = Paths.get(outFolder, "compressed." + compressionCode + frontCodeText + ".index");
-        Path pointer = Paths.get(outFolder, "compressed." + compressionCode + frontCodeText + ".pointers");
+        Path index = Paths.get(outFolder, prefix + ".index");
+        Path pointer = Paths.get(outFolder, prefix + ".pointers");
+        Path postingsFile = Paths.get(outFolder, prefix + ".postings.tmp");
 
-        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(index,
-                StandardOpenOption.CREATE,
-                StandardOpenOption.TRUNCATE_EXISTING,
-                StandardOpenOption.WRITE));
-             OutputStream ref = new BufferedOutputStream(Files.newOutputStream(pointer,
-                     StandardOpenOption.CREATE,
-                     StandardOpenOption.TRUNCATE_EXISTING,
-                     StandardOpenOption.WRITE))) {
-
-            List<Integer> documentFrequencies = new ArrayList<>();
-            List<Integer> termReferences = new ArrayList<>();
-            List<Integer> postingReferences = new ArrayList<>();
-            Integer currentFilePosition = 0;
-
-            // write dictionary as a string
-            int numberOfTerms = 0;
-            List<String> blockOfTerms = new ArrayList<>(blockSize);
-            for (String term : this.index.getInvertedIndex().keySet()) {
-                if (numberOfTerms % blockSize == 0) {
-                    // store term reference
-                    termReferences.add(currentFilePosition);
-                    // write compressed block to file
-                    if (!blockOfTerms.isEmpty()) {
+        Map<Integer, DocumentInfo> docInfo = this.index.getDocInfo();
+        Weighting weighting = Weighting.of(docInfo);
+        List<Integer> documentFrequencies = new ArrayList<>();
+        List<Integer> termReferences = new ArrayList<>();
+        List<Integer> postingReferences = new ArrayList<>();
+        List<BlockMaxima> blockMaxima = new ArrayList<>();
+        ByteArrayOutputStream dictionary = new ByteArrayOutputStream();
+        try {
+            try (OutputStream postings = newOutputStream(postingsFile)) {
+                // posting references are relative to the end of the dictionary until its size is known
+                int postingsPosition = 0;
+                BitWriter writer = new BitWriter();
+                PostingsCodec codec = PostingsCodec.forName(compressionCode);
+                // write dictionary as a string, one block of `blockSize` terms at a time
+                List<String> blockOfTerms = new ArrayList<>(blockSize);
+                Iterator<Map.Entry<String, PostingsEntry>> terms = this.index.entries().iterator();
+                while (terms.hasNext()) {
+                    Map.Entry<String, PostingsEntry> entry = terms.next();
+                    blockOfTerms.add(entry.getKey());
+                    if (blockOfTerms.size() == blockSize || !terms.hasNext()) {
+                        // store term reference and write compressed block
+                        termReferences.add(dictionary.size());
                         byte[] compressedBlock;
                         if (!frontCodingEnabled) {
                             compressedBlock = Utils.blockOfTermsToBytes(blockOfTerms);
                         } else {
                             compressedBlock = Utils.frontCodedBlockToBytes(blockOfTerms);
                         }
-                        out.write(compressedBlock);
-                        currentFilePosition += compressedBlock.length;
+                        dictionary.write(compressedBlock);
                         blockOfTerms.clear();
                     }
-                } else {
-                    blockOfTerms.add(term);
+
+                    // compress postings list using the codec
+                    PostingsEntry p = entry.getValue();
+                    documentFrequencies.add(p.getDocumentFrequency());
+                    blockMaxima.add(BlockMaxima.compute(p, weighting, docInfo));
+                    postingReferences.add(postingsPosition);
+                    byte[] postingBytes = Utils.compressedPostingListToBytes(p, codec, writer);
+                    postings.write(postingBytes);
+                    postingsPosition += postingBytes.length;
                 }
-                numberOfTerms += 1;
             }
+            blockMaximaToDisk(Paths.get(outFolder, prefix + ".blockmax"), blockMaxima);
 
-            // compress postings list using gamma-encoded gaps and write to file
-            for (PostingsEntry p : this.index.getInvertedIndex().values()) { // order of values correspond to keys, because TreeMap
-                documentFrequencies.add(p.getDocumentFrequency());
-                postingReferences.add(currentFilePosition);
-                byte[] postingBytes = Utils.compressedPostingListToBytes(p.getPostingsList(), compressionCode);
-                out.write(postingBytes);
-                currentFilePosition += postingBytes.length;
-            } // end writing posting list
+            try (OutputStream out = newOutputStream(index);
+                 OutputStream ref = newOutputStream(pointer)) {
+                dictionary.writeTo(out);
+                Files.copy(postingsFile, out);
 
-            // write term pointers and posting pointers
-            int ixTerm = 0;
-            for (int i = 0; i < documentFrequencies.size(); i++) {
-                ref.write(Utils.intToBytes(documentFrequencies.get(i)));
-                if (i % blockSize == 0) {
-                    // write term pointer
-                    ref.write(Utils.intToBytes(termReferences.get(ixTerm)));
-                    ixTerm += 1;
+                // write block size and number of terms, followed by term pointers and posting pointers
+                ref.write(Utils.intToBytes(blockSize));
+                ref.write(Utils.intToBytes(documentFrequencies.size()));
+                int ixTerm = 0;
+                for (int i = 0; i < documentFrequencies.size(); i++) {
+                    ref.write(Utils.intToBytes(documentFrequencies.get(i)));
+                    if (i % blockSize == 0) {
+                        // write term pointer
+                        ref.write(Utils.intToBytes(termReferences.get(ixTerm)));
+                        ixTerm += 1;
+                    }
+                    ref.write(Utils.intToBytes(dictionary.size() + postingReferences.get(i)));
                 }
-                ref.write(Utils.intToBytes(postingReferences.get(i)));
-            }
-        }   // end writing to file
+            }   // end writing to file
+        } finally {
+            Files.deleteIfExists(postingsFile);
+        }
     }
 }
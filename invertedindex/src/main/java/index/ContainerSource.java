@@ -0,0 +1,124 @@
+package index;
+
+import org.xml.sax.InputSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the documents out of container files, one file after the other. Every file is read sequentially in large
+ * chunks and split on the `<DOC>` and `</DOC>` tags, so a collection of millions of documents can be stored in a few
+ * large files instead of a file per document. Text outside of `<DOC>` elements is skipped.
+ */
+class ContainerSource implements DocumentSource {
+    private static final byte[] START = "<DOC>".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] END = "</DOC>".getBytes(StandardCharsets.US_ASCII);
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final List<Path> containers;
+
+    /**
+     * Next container to open.
+     */
+    private int container = 0;
+    private InputStream in;
+
+    /**
+     * Bytes read from the current container, the ones from `position` to `limit` are not scanned yet.
+     */
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position = 0;
+    private int limit = 0;
+
+    /**
+     * Bytes of the current document, reused for every document.
+     */
+    private final ByteArrayOutputStream document = new ByteArrayOutputStream();
+
+    /**
+     * @param containers container files, in the order they are read
+     */
+    ContainerSource(List<Path> containers) {
+        this.containers = containers;
+    }
+
+    @Override
+    public InputSource next() throws IOException {
+        while (true) {
+            if (this.in == null) {
+                if (this.container == this.containers.size()) {
+                    return null;
+                }
+                this.in = open(this.containers.get(this.container++));
+            }
+            if (readTo(START, false)) {
+                this.document.reset();
+                this.document.write(START, 0, START.length);
+                if (readTo(END, true)) {
+                    return new InputSource(new ByteArrayInputStream(this.document.toByteArray()));
+                }
+                // a document without an end tag at the end of the container is dropped
+            }
+            close();
+        }
+    }
+
+    private static InputStream open(Path container) throws IOException {
+        InputStream in = Files.newInputStream(container);
+        if (container.getFileName().toString().endsWith(".gz")) {
+            return new GZIPInputStream(in, BUFFER_SIZE);
+        }
+        return in;
+    }
+
+    /**
+     * Reads up to and including a tag. None of the tags has its first byte anywhere else, so on a mismatch the match
+     * can start over at the current byte.
+     *
+     * @param tag  tag to look for
+     * @param copy whether to copy the bytes read to the current document
+     * @return false if the end of the container is reached first
+     * @throws IOException
+     */
+    private boolean readTo(byte[] tag, boolean copy) throws IOException {
+        int matched = 0;
+        while (true) {
+            if (this.position == this.limit) {
+                this.limit = this.in.read(this.buffer);
+                this.position = 0;
+                if (this.limit < 0) {
+                    this.limit = 0;
+                    return false;
+                }
+            }
+            int start = this.position;
+            while (this.position < this.limit && matched < tag.length) {
+                byte b = this.buffer[this.position++];
+                matched = b == tag[matched] ? matched + 1 : (b == tag[0] ? 1 : 0);
+            }
+            if (copy) {
+                this.document.write(this.buffer, start, this.position - start);
+            }
+            if (matched == tag.length) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.in != null) {
+            this.in.close();
+            this.in = null;
+        }
+        this.position = 0;
+        this.limit = 0;
+    }
+}
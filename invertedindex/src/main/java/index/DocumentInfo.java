@@ -4,12 +4,12 @@ import util.Utils;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.Serializable;
+import java.nio.ByteBuffer;
 
 /**
  * Represents the document information stored for every document id seen in the collection.
  */
-public class DocumentInfo implements Serializable {
+public class DocumentInfo {
     /**
      * Represents the frequency of the term that is seen the most number of times in this document.
      */
@@ -20,12 +20,26 @@ public class DocumentInfo implements Serializable {
      */
     private int docLen;
 
-    private double weightedDocLenSquared;
+    /**
+     * L2 norm of the document vector under the w1 (max-tf) weighting, computed once the index is built.
+     */
+    private double normW1;
+
+    /**
+     * L2 norm of the document vector under the w2 (Okapi) weighting, computed once the index is built.
+     */
+    private double normW2;
 
     public DocumentInfo() {
         this.maxTf = 1;
         this.docLen = 1;
-        this.weightedDocLenSquared = 0;
+    }
+
+    public DocumentInfo(int maxTf, int docLen, double normW1, double normW2) {
+        this.maxTf = maxTf;
+        this.docLen = docLen;
+        this.normW1 = normW1;
+        this.normW2 = normW2;
     }
 
     public int getMaxTf() {
@@ -36,8 +50,23 @@ public class DocumentInfo implements Serializable {
         return docLen;
     }
 
-    public double getWeightedDocLenSquared() {
-        return weightedDocLenSquared;
+    /**
+     * @param weightFunction either w1 or w2
+     * @return L2 norm of the document vector under the weighting function
+     */
+    public double getNorm(String weightFunction) {
+        return weightFunction.equalsIgnoreCase("w1") ? normW1 : normW2;
+    }
+
+    /**
+     * Sets the L2 norms of the document vector.
+     *
+     * @param normW1 norm under the w1 weighting
+     * @param normW2 norm under the w2 weighting
+     */
+    public void setNorms(double normW1, double normW2) {
+        this.normW1 = normW1;
+        this.normW2 = normW2;
     }
 
     /**
@@ -54,11 +83,6 @@ public class DocumentInfo implements Serializable {
         return this;
     }
 
-    public DocumentInfo updateLenSquared(double sumOfSquares) {
-        this.weightedDocLenSquared += sumOfSquares;
-        return this;
-    }
-
     /**
      * Helper function to convert the contents of this object to bytes.
      *
@@ -69,6 +93,7 @@ public class DocumentInfo implements Serializable {
         ByteArrayOutputStream out = new ByteArrayOutputStream();
         out.write(Utils.intToBytes(this.maxTf));
         out.write(Utils.intToBytes(this.docLen));
+        out.write(ByteBuffer.allocate(16).putDouble(this.normW1).putDouble(this.normW2).array());
         return out.toByteArray();
     }
 
@@ -77,6 +102,8 @@ public class DocumentInfo implements Serializable {
         return "index.DocumentInfo{" +
                 "maxTf=" + maxTf +
                 ", docLen=" + docLen +
+                ", normW1=" + normW1 +
+                ", normW2=" + normW2 +
                 '}';
     }
 }
\ No newline at end of file
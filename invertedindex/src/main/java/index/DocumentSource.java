@@ -0,0 +1,52 @@
+package index;
+
+import org.xml.sax.InputSource;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * The documents of a collection, in the order they get their doc ids. A source only reads the documents; they are
+ * parsed by `index.Indexer`, possibly on other threads, so every document is handed out as a SAX `InputSource` of its
+ * own.
+ */
+public interface DocumentSource extends Closeable {
+    /**
+     * Opens the collection at a path. A file is a container of documents, a folder holds containers, which are read in
+     * sorted order of their names. A container holds one or more `<DOC>` elements, like the cranfield collection with
+     * one document per file or TREC-style files with many concatenated documents, and is decompressed when its name
+     * ends with .gz.
+     *
+     * @param path folder or container file
+     * @return the documents of the collection
+     * @throws IOException
+     */
+    static DocumentSource open(String path) throws IOException {
+        Path p = Paths.get(path);
+        List<Path> containers = new ArrayList<>();
+        if (Files.isDirectory(p)) {
+            try (Stream<Path> files = Files.list(p)) {
+                files.filter(Files::isRegularFile).forEach(containers::add);
+            }
+            Collections.sort(containers);
+        } else {
+            containers.add(p);
+        }
+        return new ContainerSource(containers);
+    }
+
+    /**
+     * Reads the next document.
+     *
+     * @return the document, or null if there are no documents left
+     * @throws IOException
+     */
+    InputSource next() throws IOException;
+}
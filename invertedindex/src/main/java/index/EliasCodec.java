@@ -0,0 +1,46 @@
+package index;
+
+import util.BitReader;
+import util.BitWriter;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writes every posting as the doc id gap in gamma or delta code, followed by the term frequency in gamma code. Compact,
+ * but every value has to be decoded bit by bit.
+ */
+class EliasCodec implements PostingsCodec {
+    /**
+     * Whether doc id gaps are gamma coded, otherwise they are delta coded.
+     */
+    private final boolean gamma;
+
+    EliasCodec(boolean gamma) {
+        this.gamma = gamma;
+    }
+
+    @Override
+    public void encodeBlock(int[] gaps, int[] tfs, int length, BitWriter writer) {
+        for (int i = 0; i < length; i++) {
+            if (this.gamma) {
+                writer.writeGamma(gaps[i]);
+            } else {
+                writer.writeDelta(gaps[i]);
+            }
+            writer.writeGamma(tfs[i]);
+        }
+        writer.alignToByte();
+    }
+
+    @Override
+    public Decoder decoder(ByteBuffer buffer) {
+        BitReader bits = new BitReader(buffer, 0);
+        return (position, length, gaps, tfs) -> {
+            bits.seek(position);
+            for (int i = 0; i < length; i++) {
+                gaps[i] = this.gamma ? bits.readGamma() : bits.readDelta();
+                tfs[i] = bits.readGamma();
+            }
+        };
+    }
+}
@@ -0,0 +1,652 @@
+package index;
+
+import util.Utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Reads an index written by `index.Compression` without loading it on the heap. The index and pointer files are memory
+ * mapped, terms are looked up with a binary search over the pointer file and posting lists are decoded only when they
+ * are iterated over. Only the document information, including the document norms, is read eagerly.
+ * <p>
+ * Both the uncompressed index and the compressed versions (blocking with any `index.PostingsCodec`, with or without
+ * front coding) can be read. The version is derived from the name of the index files.
+ * <p>
+ * The decoded blocks of a compressed index can be kept in a `index.BlockCache`, so that the posting lists of frequent
+ * terms are not decoded again by every query.
+ */
+public class IndexReader implements InvertedIndex {
+    /**
+     * Size of a record in the pointer file of the uncompressed index: df, term reference, postings reference.
+     */
+    private static final int POINTER_RECORD_SIZE = 3 * 4;
+
+    /**
+     * Size of a record in the document info file: docId, maxTf, docLen (4 bytes each), w1 norm, w2 norm (8 bytes
+     * each).
+     */
+    private static final int DOCINFO_RECORD_SIZE = 3 * 4 + 2 * 8;
+
+    /**
+     * Size of the header of the pointer file of a compressed index: block size, number of terms.
+     */
+    private static final int COMPRESSED_HEADER_SIZE = 2 * 4;
+
+    private final MappedByteBuffer index;
+    private final MappedByteBuffer pointers;
+    private final MappedByteBuffer blockMaxima;
+    private final int numberOfTerms;
+
+    private final boolean compressed;
+
+    /**
+     * Width of the fixed width terms in the uncompressed index file.
+     */
+    private final int termWidth;
+
+    /**
+     * Number of terms in a block of the compressed dictionary.
+     */
+    private final int blockSize;
+
+    /**
+     * Codec of the posting lists of the compressed index.
+     */
+    private final PostingsCodec codec;
+
+    /**
+     * Cache of the decoded blocks of the compressed posting lists, null if blocks are not cached.
+     */
+    private final BlockCache blockCache;
+
+    private final boolean frontCoding;
+
+    private final Map<Integer, DocumentInfo> docInfo = new HashMap<>();
+
+    /**
+     * Opens the uncompressed index in this folder.
+     *
+     * @param folder folder the index was written to
+     * @throws IOException
+     */
+    public IndexReader(String folder) throws IOException {
+        this(folder, "uncompressed");
+    }
+
+    /**
+     * Opens an index in this folder.
+     *
+     * @param folder folder the index was written to
+     * @param name   name of the index files, without the extension
+     * @throws IOException
+     */
+    public IndexReader(String folder, String name) throws IOException {
+        this(folder, name, 0);
+    }
+
+    /**
+     * Opens an index in this folder, with a cache of decoded blocks if the index is compressed.
+     *
+     * @param folder          folder the index was written to
+     * @param name            name of the index files, without the extension
+     * @param blockCacheBytes heap size of the `index.BlockCache`, 0 for no cache
+     * @throws IOException
+     */
+    public IndexReader(String folder, String name, long blockCacheBytes) throws IOException {
+        this.index = map(Paths.get(folder, name + ".index"));
+        this.pointers = map(Paths.get(folder, name + ".pointers"));
+        this.blockMaxima = map(Paths.get(folder, name + ".blockmax"));
+        if ("uncompressed".equals(name)) {
+            this.compressed = false;
+            this.codec = null;
+            this.frontCoding = false;
+            this.blockSize = 1;
+            this.numberOfTerms = this.pointers.capacity() / POINTER_RECORD_SIZE;
+            this.termWidth = this.numberOfTerms == 0 ? 0 : postingsReference(0) - termReference(0);
+        } else if (name.startsWith("compressed.")) {
+            this.compressed = true;
+            this.frontCoding = name.endsWith(".frontcoding");
+            this.codec = PostingsCodec.forName(name.substring("compressed.".length(),
+                    name.length() - (this.frontCoding ? ".frontcoding".length() : 0)));
+            this.blockSize = this.pointers.getInt(0);
+            this.numberOfTerms = this.pointers.getInt(4);
+            this.termWidth = 0;
+        } else {
+            throw new IllegalArgumentException("Unknown index " + name);
+        }
+        this.blockCache = this.compressed && blockCacheBytes > 0 ? new BlockCache(blockCacheBytes) : null;
+        readDocInfo(Paths.get(folder, name + ".docinfo"));
+    }
+
+    /**
+     * @return cache of the decoded blocks of the posting lists, null if blocks are not cached
+     */
+    public BlockCache getBlockCache() {
+        return this.blockCache;
+    }
+
+    /**
+     * Checks whether an index has been written to this folder.
+     *
+     * @param folder folder the index was written to
+     * @param name   name of the index files, without the extension
+     * @return true if all the files of the index exist
+     */
+    public static boolean exists(String folder, String name) {
+        for (String extension : Arrays.asList(".index", ".pointers", ".docinfo", ".blockmax")) {
+            if (!Files.isRegularFile(Paths.get(folder, name + extension))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static MappedByteBuffer map(Path p) throws IOException {
+        // the mapping stays valid after the channel is closed
+        try (FileChannel channel = FileChannel.open(p, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private void readDocInfo(Path p) throws IOException {
+        ByteBuffer buffer = map(p);
+        for (int pos = 0; pos + DOCINFO_RECORD_SIZE <= buffer.capacity(); pos += DOCINFO_RECORD_SIZE) {
+            int docId = buffer.getInt(pos);
+            int maxTf = buffer.getInt(pos + 4);
+            int docLen = buffer.getInt(pos + 8);
+            double normW1 = buffer.getDouble(pos + 12);
+            double normW2 = buffer.getDouble(pos + 20);
+            this.docInfo.put(docId, new DocumentInfo(maxTf, docLen, normW1, normW2));
+        }
+    }
+
+    /**
+     * Position of the pointer record of a term. Records of the compressed index are 8 bytes, with an additional term
+     * pointer for the first term of every block.
+     *
+     * @param termId position of the term in the dictionary
+     * @return byte offset of the record in the pointer file
+     */
+    private int pointerRecord(int termId) {
+        if (!this.compressed) {
+            return termId * POINTER_RECORD_SIZE;
+        }
+        int termPointersBefore = (termId + this.blockSize - 1) / this.blockSize;
+        return COMPRESSED_HEADER_SIZE + termId * 8 + termPointersBefore * 4;
+    }
+
+    private int documentFrequency(int termId) {
+        return this.pointers.getInt(pointerRecord(termId));
+    }
+
+    /**
+     * @param termId position of the term in the dictionary, the first term of a block for the compressed index
+     * @return byte offset of the term, or the block of terms, in the index file
+     */
+    private int termReference(int termId) {
+        return this.pointers.getInt(pointerRecord(termId) + 4);
+    }
+
+    private int postingsReference(int termId) {
+        if (this.compressed && termId % this.blockSize != 0) {
+            return this.pointers.getInt(pointerRecord(termId) + 4);
+        }
+        return this.pointers.getInt(pointerRecord(termId) + 8);
+    }
+
+    private String readString(int start, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = this.index.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the term at this position of the dictionary.
+     *
+     * @param termId position of the term in the dictionary
+     * @return the term
+     */
+    private String termAt(int termId) {
+        if (this.compressed) {
+            int block = termId / this.blockSize;
+            return readBlock(block)[termId - block * this.blockSize];
+        }
+        // terms are padded with zero bytes to the fixed width
+        int start = termReference(termId);
+        int length = 0;
+        while (length < this.termWidth && this.index.get(start + length) != 0) {
+            length++;
+        }
+        return readString(start, length);
+    }
+
+    /**
+     * Decodes a block of the compressed dictionary. Every term is preceded by its length in a byte, or in the 4 bytes
+     * after `Utils.LONG_TERM_LENGTH` for terms that are as long or longer. With front coding, the first term is written
+     * as prefix*suffix and the following terms as |suffix.
+     *
+     * @param block block number
+     * @return terms in the block
+     */
+    private String[] readBlock(int block) {
+        int firstTermId = block * this.blockSize;
+        String[] terms = new String[Math.min(this.blockSize, this.numberOfTerms - firstTermId)];
+        int position = termReference(firstTermId);
+        String prefix = "";
+        for (int i = 0; i < terms.length; i++) {
+            int length = this.index.get(position) & 0xFF;
+            position += 1;
+            if (length == Utils.LONG_TERM_LENGTH) {
+                length = this.index.getInt(position);
+                position += 4;
+            }
+            if (!this.frontCoding) {
+                terms[i] = readString(position, length);
+            } else if (i == 0) {
+                String first = readString(position, length + 1);
+                length += 1;    // the * is not included in the length
+                int marker = first.indexOf('*');
+                prefix = first.substring(0, marker);
+                terms[i] = prefix + first.substring(marker + 1);
+            } else {
+                terms[i] = prefix + readString(position + 1, length - 1);
+            }
+            position += length;
+        }
+        return terms;
+    }
+
+    /**
+     * Binary search over the first term of every block of the dictionary, which is written in lexicographical order.
+     * For the uncompressed index, every block has a single term.
+     *
+     * @param term term to look up
+     * @return the block whose first term is `term`, otherwise -1 - the first block whose first term follows `term`
+     */
+    private int searchBlocks(String term) {
+        int low = 0;
+        int high = (this.numberOfTerms + this.blockSize - 1) / this.blockSize - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = termAt(mid * this.blockSize).compareTo(term);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1 - low;
+    }
+
+    /**
+     * Binary search for the block of the term, followed by a scan of the block for the compressed index.
+     */
+    @Override
+    public int getTermId(String term) {
+        int block = searchBlocks(term);
+        if (block >= 0) {
+            return block * this.blockSize;
+        }
+        // the last block whose first term precedes the term
+        block = -2 - block;
+        if (block < 0 || this.blockSize == 1) {
+            return -1;
+        }
+        // the term can only be in the block whose first term precedes it
+        String[] terms = readBlock(block);
+        for (int i = 1; i < terms.length; i++) {
+            if (terms[i].equals(term)) {
+                return block * this.blockSize + i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int ceilingTermId(String term) {
+        int block = searchBlocks(term);
+        if (block >= 0) {
+            return block * this.blockSize;
+        }
+        // the last block whose first term precedes the term
+        block = -2 - block;
+        if (block < 0) {
+            return 0;
+        } else if (this.blockSize == 1) {
+            return block + 1;
+        }
+        String[] terms = readBlock(block);
+        for (int i = 1; i < terms.length; i++) {
+            if (terms[i].compareTo(term) >= 0) {
+                return block * this.blockSize + i;
+            }
+        }
+        return block * this.blockSize + terms.length;
+    }
+
+    @Override
+    public Map<Integer, DocumentInfo> getDocInfo() {
+        return this.docInfo;
+    }
+
+    @Override
+    public Iterable<String> getTerms() {
+        return () -> new Iterator<String>() {
+            private int termId = 0;
+            private String[] block = new String[0];
+
+            @Override
+            public boolean hasNext() {
+                return termId < numberOfTerms;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                if (!compressed) {
+                    return termAt(termId++);
+                }
+                if (termId % blockSize == 0) {
+                    block = readBlock(termId / blockSize);
+                }
+                return block[termId++ % blockSize];
+            }
+        };
+    }
+
+    @Override
+    public int getNumberOfTerms() {
+        return this.numberOfTerms;
+    }
+
+    @Override
+    public String getTerm(int termId) {
+        if (termId < 0 || termId >= this.numberOfTerms) {
+            throw new IndexOutOfBoundsException("Term id " + termId + " of " + this.numberOfTerms + " terms");
+        }
+        return termAt(termId);
+    }
+
+    @Override
+    public int getDF(int termId) {
+        return documentFrequency(termId);
+    }
+
+    @Override
+    public PostingsIterator getPostings(int termId) {
+        return postings(termId);
+    }
+
+    /**
+     * The block maxima file starts with the number of terms, followed by the offset of the block maxima of every term.
+     */
+    @Override
+    public BlockMaxima getBlockMaxima(int termId) {
+        return BlockMaxima.read(this.blockMaxima, this.blockMaxima.getInt(4 + 4 * termId));
+    }
+
+    private PostingsIterator postings(int termId) {
+        if (this.compressed) {
+            return new CompressedPostingsIterator(termId, postingsReference(termId), documentFrequency(termId));
+        }
+        return new UncompressedPostingsIterator(postingsReference(termId), documentFrequency(termId));
+    }
+
+    /**
+     * Decodes an uncompressed posting list, a sequence of (docId, tf) pairs of 4 bytes each. Since the pairs have a
+     * fixed width, `advance` is a binary search.
+     */
+    private class UncompressedPostingsIterator implements PostingsIterator {
+        private final int start;
+        private final int documentFrequency;
+
+        /**
+         * Number of postings read so far.
+         */
+        private int ordinal = 0;
+        private int docId = -1;
+        private int tf = 0;
+
+        UncompressedPostingsIterator(int start, int documentFrequency) {
+            this.start = start;
+            this.documentFrequency = documentFrequency;
+        }
+
+        private int docIdAt(int ordinal) {
+            return index.getInt(this.start + 8 * ordinal);
+        }
+
+        /**
+         * Moves to a posting.
+         *
+         * @param ordinal position of the posting in the list
+         * @return doc id of the posting, or `NO_MORE_DOCS` if the list has fewer postings
+         */
+        private int moveTo(int ordinal) {
+            if (ordinal >= this.documentFrequency) {
+                this.ordinal = this.documentFrequency;
+                this.docId = NO_MORE_DOCS;
+                this.tf = 0;
+            } else {
+                this.ordinal = ordinal + 1;
+                this.docId = docIdAt(ordinal);
+                this.tf = index.getInt(this.start + 8 * ordinal + 4);
+            }
+            return this.docId;
+        }
+
+        @Override
+        public int nextDoc() {
+            return moveTo(this.ordinal);
+        }
+
+        @Override
+        public int advance(int target) {
+            if (this.docId >= target) {
+                return this.docId;
+            }
+            // first posting at or after the current one with a doc id of at least target
+            int low = this.ordinal;
+            int high = this.documentFrequency;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (docIdAt(mid) < target) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return moveTo(low);
+        }
+
+        @Override
+        public int docId() {
+            return this.docId;
+        }
+
+        @Override
+        public int tf() {
+            return this.tf;
+        }
+    }
+
+    /**
+     * Decodes a compressed posting list, one block of `BlockMaxima.BLOCK_SIZE` postings at a time. Lists of more than
+     * one block start with a skip table of (byte offset, last doc id) pairs, which `advance` uses to jump to the block
+     * that holds the target, so only that block is decoded. Blocks found in the block cache are read from there
+     * instead of being decoded.
+     */
+    private class CompressedPostingsIterator implements PostingsIterator {
+        private final int termId;
+        private final int skipTable;
+        private final int numberOfBlocks;
+
+        /**
+         * Position of the first block, after the skip table.
+         */
+        private final int blocks;
+        private final int documentFrequency;
+
+        /**
+         * Arrays blocks are decoded into.
+         */
+        private final int[] decodedDocIds = new int[BlockMaxima.BLOCK_SIZE];
+        private final int[] decodedTfs = new int[BlockMaxima.BLOCK_SIZE];
+
+        /**
+         * Doc ids and term frequencies of the current block, either the decoded arrays or the arrays of a cached block.
+         */
+        private int[] docIds = this.decodedDocIds;
+        private int[] tfs = this.decodedTfs;
+
+        /**
+         * Decoder of the blocks, created on the first block that is not in the cache.
+         */
+        private PostingsCodec.Decoder decoder;
+
+        private int block = -1;
+        private int blockLength = 0;
+
+        /**
+         * Position of the current posting in the block.
+         */
+        private int current = -1;
+        private int docId = -1;
+        private int tf = 0;
+
+        CompressedPostingsIterator(int termId, int position, int documentFrequency) {
+            this.termId = termId;
+            this.documentFrequency = documentFrequency;
+            this.numberOfBlocks = (documentFrequency + BlockMaxima.BLOCK_SIZE - 1) / BlockMaxima.BLOCK_SIZE;
+            this.skipTable = position;
+            this.blocks = this.numberOfBlocks > 1 ? position + 8 * this.numberOfBlocks : position;
+        }
+
+        private int blockOffset(int block) {
+            return index.getInt(this.skipTable + 8 * block);
+        }
+
+        private int lastDocId(int block) {
+            return index.getInt(this.skipTable + 8 * block + 4);
+        }
+
+        /**
+         * Decodes a block and turns the gaps into doc ids, or takes the block from the cache.
+         */
+        private void loadBlock(int block) {
+            this.block = block;
+            this.blockLength = Math.min(BlockMaxima.BLOCK_SIZE,
+                    this.documentFrequency - block * BlockMaxima.BLOCK_SIZE);
+            this.current = -1;
+            if (blockCache != null) {
+                BlockCache.Block cached = blockCache.get(this.termId, block);
+                if (cached != null) {
+                    this.docIds = cached.docIds;
+                    this.tfs = cached.tfs;
+                    return;
+                }
+            }
+            this.docIds = this.decodedDocIds;
+            this.tfs = this.decodedTfs;
+            int position = block == 0 ? this.blocks : this.blocks + blockOffset(block);
+            if (this.decoder == null) {
+                this.decoder = codec.decoder(index);
+            }
+            this.decoder.decodeBlock(position, this.blockLength, this.docIds, this.tfs);
+            // the first gap of a block is from the last doc id of the block before
+            int previousDocId = block == 0 ? 0 : lastDocId(block - 1);
+            for (int i = 0; i < this.blockLength; i++) {
+                previousDocId += this.docIds[i];
+                this.docIds[i] = previousDocId;
+            }
+            if (blockCache != null) {
+                blockCache.put(this.termId, block, Arrays.copyOf(this.docIds, this.blockLength),
+                        Arrays.copyOf(this.tfs, this.blockLength));
+            }
+        }
+
+        private int exhaust() {
+            this.block = this.numberOfBlocks;
+            this.blockLength = 0;
+            this.current = -1;
+            this.docId = NO_MORE_DOCS;
+            this.tf = 0;
+            return this.docId;
+        }
+
+        @Override
+        public int nextDoc() {
+            if (this.current + 1 == this.blockLength) {
+                if (this.block + 1 >= this.numberOfBlocks) {
+                    return exhaust();
+                }
+                loadBlock(this.block + 1);
+            }
+            this.current++;
+            this.docId = this.docIds[this.current];
+            this.tf = this.tfs[this.current];
+            return this.docId;
+        }
+
+        @Override
+        public int advance(int target) {
+            if (this.docId >= target) {
+                return this.docId;
+            }
+            if (this.block < 0 || this.docIds[this.blockLength - 1] < target) {
+                // first block after the current one that ends at or after target
+                int low = this.block + 1;
+                int high = this.numberOfBlocks;
+                if (this.numberOfBlocks > 1) {
+                    while (low < high) {
+                        int mid = (low + high) >>> 1;
+                        if (lastDocId(mid) < target) {
+                            low = mid + 1;
+                        } else {
+                            high = mid;
+                        }
+                    }
+                }
+                if (low >= this.numberOfBlocks) {
+                    return exhaust();
+                }
+                loadBlock(low);
+                if (this.docIds[this.blockLength - 1] < target) {
+                    // a list of a single block, which has no skip table
+                    return exhaust();
+                }
+            }
+            do {
+                this.current++;
+            } while (this.docIds[this.current] < target);
+            this.docId = this.docIds[this.current];
+            this.tf = this.tfs[this.current];
+            return this.docId;
+        }
+
+        @Override
+        public int docId() {
+            return this.docId;
+        }
+
+        @Override
+        public int tf() {
+            return this.tf;
+        }
+    }
+}
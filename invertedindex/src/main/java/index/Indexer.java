@@ -1,13 +1,10 @@
 package index;
 
-import edu.stanford.nlp.ling.CoreAnnotations;
-import edu.stanford.nlp.ling.CoreLabel;
-import edu.stanford.nlp.pipeline.Annotation;
-import edu.stanford.nlp.pipeline.StanfordCoreNLP;
-import edu.stanford.nlp.util.CoreMap;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
+import preprocess.Analyzer;
 import preprocess.Stemmer;
-import preprocess.TokenFilter;
+import preprocess.StreamingAnalyzer;
 import util.ParseXMLFile;
 import util.Timer;
 
@@ -16,28 +13,37 @@ import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
 
 /**
  * index.Indexer handles preprocessing the collection as well as building and compressing the index
  */
 public class Indexer {
-    private static Stemmer stemmer = new Stemmer();
-    private static Map<String, String> stemLookup = new HashMap<>();    // to cache stemmer results
-
     /**
-     * Helper function to get stem of a word. Uses memoization to speed up the process.
+     * Helper function to get stem of a word. Uses memoization to speed up the process, a word is only stemmed when it
+     * is not in the cache. Safe to call from any thread.
      *
      * @param word the word to stem
      * @return stemmed word
      */
     public static String stemWord(String word) {
-        String result = stemLookup.getOrDefault(word, stemmer.stem(word));
-        stemLookup.putIfAbsent(word, result);
-        return result;
+        return Stemmer.stemWord(word);
     }
 
+    /**
+     * SAX parsers of the threads that parse documents. Creating a parser is expensive and a parser can be reused after
+     * a reset, but it can not be shared by threads.
+     */
+    private static final ThreadLocal<SAXParser> parsers = ThreadLocal.withInitial(() -> {
+        try {
+            return SAXParserFactory.newInstance().newSAXParser();
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IllegalStateException("Could not create a SAX parser", e);
+        }
+    });
+
     /**
      * Helper function to parse a cranfield document.
      *
@@ -46,19 +52,42 @@ public class Indexer {
      * @throws IOException
      */
     public static ParseXMLFile parseCranfieldDocument(File doc) throws IOException {
-        // process one file
-        SAXParserFactory factory = SAXParserFactory.newInstance();
-        ParseXMLFile cranfield = new ParseXMLFile();
+        return parseCranfieldDocument(doc, new ParseXMLFile());
+    }
+
+    /**
+     * Helper function to parse a cranfield document with a handler that is reused for every document.
+     *
+     * @param doc     File object of the document
+     * @param handler handler to parse the document with, reset first
+     * @return the handler
+     * @throws IOException
+     */
+    public static ParseXMLFile parseCranfieldDocument(File doc, ParseXMLFile handler) throws IOException {
+        return parseCranfieldDocument(new InputSource(doc.toURI().toASCIIString()), handler);
+    }
+
+    /**
+     * Helper function to parse a cranfield document, read by a `DocumentSource`, with a handler that is reused for
+     * every document.
+     *
+     * @param doc     the document
+     * @param handler handler to parse the document with, reset first
+     * @return the handler
+     * @throws IOException
+     */
+    public static ParseXMLFile parseCranfieldDocument(InputSource doc, ParseXMLFile handler) throws IOException {
+        // process one document with the parser of this thread
+        SAXParser saxParser = parsers.get();
+        handler.reset();
         try {
-            SAXParser saxParser = factory.newSAXParser();
-            saxParser.parse(doc, cranfield);
-            // annotate and process terms in text
-        } catch (ParserConfigurationException e1) {
-            e1.printStackTrace();
-        } catch (SAXException e2) {
-            e2.printStackTrace();
+            saxParser.parse(doc, handler);
+        } catch (SAXException e) {
+            e.printStackTrace();
+        } finally {
+            saxParser.reset();
         }
-        return cranfield;
+        return handler;
     }
 
     /**
@@ -70,49 +99,75 @@ public class Indexer {
      * @throws IOException
      */
     public static SPIMI buildIndex(String folder, boolean useStemming) throws IOException {
-        File collection = new File(folder);
-        String[] files = collection.list(); // in random order
-        Arrays.sort(files);
+        return buildIndex(folder, useStemming, new SPIMI());
+    }
 
-        String mode = useStemming ? "stem" : "lemma";
+    /**
+     * Utility function to build the index using lemmas or stems into the given index, which may write blocks to disk
+     * when it goes over its memory budget.
+     *
+     * @param folder      folder containing the documents to be indexed
+     * @param useStemming whether to use stemming or not, if false, only lemmas are used to build the index
+     * @param spimi       empty index to add the documents to
+     * @return the `index.SPIMI` object used to index the collection
+     * @throws IOException
+     */
+    public static SPIMI buildIndex(String folder, boolean useStemming, SPIMI spimi) throws IOException {
+        return buildIndex(folder, useStemming ? "stem" : "lemma", spimi);
+    }
 
-        SPIMI spimi = new SPIMI();
+    /**
+     * Utility function to build the index with the terms of an analyzer into the given index, which may write blocks
+     * to disk when it goes over its memory budget.
+     *
+     * @param folder   folder containing the documents to be indexed, or a container file, see `DocumentSource.open`
+     * @param analyzer name of the `preprocess.Analyzer`: lemma, stem or fast
+     * @param spimi    empty index to add the documents to
+     * @return the `index.SPIMI` object used to index the collection
+     * @throws IOException
+     */
+    public static SPIMI buildIndex(String folder, String analyzer, SPIMI spimi) throws IOException {
+        try (DocumentSource source = DocumentSource.open(folder)) {
+            return buildIndex(source, analyzer, spimi);
+        }
+    }
 
-        // build pipeline for lemmatization
-        Properties props = new Properties();
-        props.setProperty("annotators", "tokenize,ssplit,pos,lemma");
-        StanfordCoreNLP pipeline = new StanfordCoreNLP(props);
+    /**
+     * Utility function to build the index of the documents of a source with the terms of an analyzer into the given
+     * index. Doc ids are assigned in the order of the source, starting at 1.
+     *
+     * @param source   documents to be indexed
+     * @param analyzer name of the `preprocess.Analyzer`: lemma, stem or fast
+     * @param spimi    empty index to add the documents to
+     * @return the `index.SPIMI` object used to index the collection
+     * @throws IOException
+     */
+    public static SPIMI buildIndex(DocumentSource source, String analyzer, SPIMI spimi) throws IOException {
+        return buildIndex(source, analyzer, spimi, 1);
+    }
+
+    /**
+     * Utility function to build the index of the documents of a source with the terms of an analyzer into the given
+     * index, with doc ids assigned in the order of the source, starting at `firstDocId`. Used to add documents to a
+     * `SegmentedIndex`, whose segments continue the doc ids of the segments before them.
+     *
+     * @param source     documents to be indexed
+     * @param analyzer   name of the `preprocess.Analyzer`: lemma, stem or fast
+     * @param spimi      empty index to add the documents to
+     * @param firstDocId doc id of the first document of the source
+     * @return the `index.SPIMI` object used to index the collection
+     * @throws IOException
+     */
+    public static SPIMI buildIndex(DocumentSource source, String analyzer, SPIMI spimi, int firstDocId)
+            throws IOException {
+        DocumentIndexer indexer = new DocumentIndexer(analyzer, spimi);
 
         Timer timer = new Timer();
 
-        int docId = 1;
-
-        for (String file : files) {
-            File doc = Paths.get(folder, file).toFile();
-            ParseXMLFile cranfield = parseCranfieldDocument(doc);
-
-            // annotate document
-            Annotation document = new Annotation(cranfield.getTextField().toString());
-            pipeline.annotate(document);
-
-            // show output
-            List<CoreMap> sentences = document.get(CoreAnnotations.SentencesAnnotation.class);
-
-            for (CoreMap sentence : sentences) {
-                for (CoreLabel token : sentence.get(CoreAnnotations.TokensAnnotation.class)) {
-                    String lemma = token.get(CoreAnnotations.LemmaAnnotation.class);
-                    TokenFilter tokenFilterObj = new TokenFilter(lemma);
-                    for (String word : tokenFilterObj.getTokens()) {
-                        // build index with stems
-                        String term = word;
-                        if (useStemming) {
-                            term = stemWord(word);
-                        }
-                        spimi.invert(term, docId);
-                    }
-                }
-            }
+        int docId = firstDocId;
 
+        for (InputSource doc = source.next(); doc != null; doc = source.next()) {
+            indexer.index(doc, docId);
             docId += 1;
         }
 
@@ -121,6 +176,247 @@ public class Indexer {
         return spimi;
     }
 
+    /**
+     * Builds the index with a pipeline of threads. The calling thread reads the documents in the order of their
+     * `DocumentSource`, which assigns the doc ids, and hands them to `numberOfWorkers` workers. Every worker parses
+     * the documents it takes, and has its own CoreNLP pipeline and its own partial index. Since every worker takes
+     * documents in the order they were read, doc ids are increasing within every partial index, and the partial
+     * indexes are merged by doc id at the end. The result is the same index as the single threaded `buildIndex`.
+     *
+     * @param folder          folder containing the documents to be indexed
+     * @param useStemming     whether to use stemming or not, if false, only lemmas are used to build the index
+     * @param numberOfWorkers number of annotator threads
+     * @param partialIndex    creates an empty partial index for every worker, partial indexes that write blocks to disk
+     *                        need a run folder of their own
+     * @return the merged index
+     * @throws IOException
+     */
+    public static SPIMI buildIndex(String folder, boolean useStemming, int numberOfWorkers,
+                                   Supplier<SPIMI> partialIndex) throws IOException {
+        return buildIndex(folder, useStemming ? "stem" : "lemma", numberOfWorkers, partialIndex);
+    }
+
+    /**
+     * Builds the index with a pipeline of threads, like `buildIndex(String, boolean, int, Supplier)`, with the terms of
+     * an analyzer. Every worker has an analyzer of its own.
+     *
+     * @param folder          folder containing the documents to be indexed, or a container file, see
+     *                        `DocumentSource.open`
+     * @param analyzer        name of the `preprocess.Analyzer`: lemma, stem or fast
+     * @param numberOfWorkers number of analyzer threads
+     * @param partialIndex    creates an empty partial index for every worker, partial indexes that write blocks to disk
+     *                        need a run folder of their own
+     * @return the merged index
+     * @throws IOException
+     */
+    public static SPIMI buildIndex(String folder, String analyzer, int numberOfWorkers,
+                                   Supplier<SPIMI> partialIndex) throws IOException {
+        try (DocumentSource source = DocumentSource.open(folder)) {
+            return buildIndex(source, analyzer, numberOfWorkers, partialIndex);
+        }
+    }
+
+    /**
+     * Builds the index of the documents of a source with a pipeline of threads, like
+     * `buildIndex(String, String, int, Supplier)`. The calling thread reads the documents from the source, the workers
+     * parse them.
+     *
+     * @param source          documents to be indexed
+     * @param analyzer        name of the `preprocess.Analyzer`: lemma, stem or fast
+     * @param numberOfWorkers number of analyzer threads
+     * @param partialIndex    creates an empty partial index for every worker, partial indexes that write blocks to disk
+     *                        need a run folder of their own
+     * @return the merged index
+     * @throws IOException
+     */
+    public static SPIMI buildIndex(DocumentSource source, String analyzer, int numberOfWorkers,
+                                   Supplier<SPIMI> partialIndex) throws IOException {
+        Timer timer = new Timer();
+
+        BlockingQueue<QueuedDocument> queue = new ArrayBlockingQueue<>(4 * numberOfWorkers);
+        // the analyzers are created before any worker starts, so an unknown analyzer fails here
+        List<DocumentIndexer> indexers = new ArrayList<>();
+        List<SPIMI> parts = new ArrayList<>();
+        for (int i = 0; i < numberOfWorkers; i++) {
+            SPIMI part = partialIndex.get();
+            parts.add(part);
+            indexers.add(new DocumentIndexer(analyzer, part));
+        }
+        ExecutorService workers = Executors.newFixedThreadPool(numberOfWorkers);
+        List<Future<SPIMI>> results = new ArrayList<>();
+        for (int i = 0; i < numberOfWorkers; i++) {
+            DocumentIndexer indexer = indexers.get(i);
+            SPIMI part = parts.get(i);
+            results.add(workers.submit(() -> {
+                for (QueuedDocument doc = queue.take(); doc != QueuedDocument.END; doc = queue.take()) {
+                    indexer.index(doc.input, doc.docId);
+                }
+                return part;
+            }));
+        }
+
+        try {
+            // reader stage
+            int docId = 1;
+            for (InputSource doc = source.next(); doc != null; doc = source.next()) {
+                enqueue(queue, new QueuedDocument(docId, doc), results);
+                docId += 1;
+            }
+            for (int i = 0; i < numberOfWorkers; i++) {
+                enqueue(queue, QueuedDocument.END, results);
+            }
+            for (Future<SPIMI> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while building the index", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Could not index the collection", e.getCause());
+        } finally {
+            workers.shutdownNow();
+        }
+
+        SPIMI spimi = SPIMI.merge(parts);
+
+        System.out.println(timer.end());
+
+        return spimi;
+    }
+
+    /**
+     * Hands a document to the workers, waiting while the queue is full. The reader checks for failed workers while it
+     * waits, so it does not block forever on a queue that no worker takes from anymore.
+     *
+     * @param queue   queue of the workers
+     * @param doc     document to hand over
+     * @param results results of the workers
+     * @throws InterruptedException if the reader is interrupted while waiting
+     * @throws ExecutionException   with the failure of a worker that stopped early
+     */
+    private static void enqueue(BlockingQueue<QueuedDocument> queue, QueuedDocument doc, List<Future<SPIMI>> results)
+            throws InterruptedException, ExecutionException {
+        while (!queue.offer(doc, 100, TimeUnit.MILLISECONDS)) {
+            for (Future<SPIMI> result : results) {
+                // a worker that took its end marker is done as well, only a failed one throws
+                if (result.isDone()) {
+                    result.get();
+                }
+            }
+        }
+    }
+
+    /**
+     * Parses and analyzes documents and adds their terms to an index, on one thread. The SAX handler and the buffer of
+     * terms are reused for every document. When the analyzer is a `preprocess.StreamingAnalyzer`, the handler streams
+     * the text field into the analyzer as it is parsed, so the text of a document is never materialized; otherwise the
+     * text field is collected and analyzed as a whole.
+     */
+    private static class DocumentIndexer {
+        private final Analyzer analyzer;
+        private final SPIMI spimi;
+        private final List<String> terms = new ArrayList<>();
+        private final ParseXMLFile handler;
+
+        DocumentIndexer(String analyzer, SPIMI spimi) {
+            this.analyzer = Analyzer.forName(analyzer);
+            this.spimi = spimi;
+            if (this.analyzer instanceof StreamingAnalyzer) {
+                StreamingAnalyzer streaming = (StreamingAnalyzer) this.analyzer;
+                this.handler = new ParseXMLFile((ch, start, length) -> streaming.append(ch, start, length, this.terms));
+            } else {
+                this.handler = new ParseXMLFile();
+            }
+        }
+
+        /**
+         * @param doc   the document
+         * @param docId doc id of the document
+         * @throws IOException
+         */
+        void index(InputSource doc, int docId) throws IOException {
+            this.terms.clear();
+            parseCranfieldDocument(doc, this.handler);
+            if (this.analyzer instanceof StreamingAnalyzer) {
+                ((StreamingAnalyzer) this.analyzer).end(this.terms);
+            } else {
+                this.analyzer.analyze(this.handler.getTextField().toString(), this.terms);
+            }
+            for (String term : this.terms) {
+                this.spimi.invert(term, docId);
+            }
+        }
+    }
+
+    /**
+     * Compares the dictionaries and postings of two indexes of the same collection, such as a lemma index and an index
+     * built by the fast analyzer. A posting is shared if both indexes have a posting for the same term and document.
+     *
+     * @param reference index to compare against
+     * @param other     index to compare
+     * @return a report of the number of terms and postings of both indexes and the number they share
+     */
+    public static String compareIndexes(InvertedIndex reference, InvertedIndex other) {
+        long sharedTerms = 0;
+        long referencePostings = 0;
+        long otherPostings = 0;
+        long sharedPostings = 0;
+        Iterator<String> otherTerms = other.getTerms().iterator();
+        String otherTerm = otherTerms.hasNext() ? otherTerms.next() : null;
+        int otherTermId = 0;
+        int referenceTermId = 0;
+        for (String term : reference.getTerms()) {
+            // both dictionaries are sorted
+            while (otherTerm != null && otherTerm.compareTo(term) < 0) {
+                otherPostings += other.getDF(otherTermId++);
+                otherTerm = otherTerms.hasNext() ? otherTerms.next() : null;
+            }
+            referencePostings += reference.getDF(referenceTermId);
+            if (term.equals(otherTerm)) {
+                sharedTerms++;
+                otherPostings += other.getDF(otherTermId);
+                PostingsIterator r = reference.getPostings(referenceTermId);
+                PostingsIterator o = other.getPostings(otherTermId);
+                for (int docId = r.nextDoc(); docId != PostingsIterator.NO_MORE_DOCS; docId = r.nextDoc()) {
+                    if (o.advance(docId) == docId) {
+                        sharedPostings++;
+                    }
+                }
+                otherTermId++;
+                otherTerm = otherTerms.hasNext() ? otherTerms.next() : null;
+            }
+            referenceTermId++;
+        }
+        while (otherTerm != null) {
+            otherPostings += other.getDF(otherTermId++);
+            otherTerm = otherTerms.hasNext() ? otherTerms.next() : null;
+        }
+        return String.format("Terms: %d in reference, %d in other, %d shared (%.1f%% of reference)%n" +
+                        "Postings: %d in reference, %d in other, %d shared (%.1f%% of reference)",
+                reference.getNumberOfTerms(), other.getNumberOfTerms(), sharedTerms,
+                100.0 * sharedTerms / Math.max(1, reference.getNumberOfTerms()),
+                referencePostings, otherPostings, sharedPostings,
+                100.0 * sharedPostings / Math.max(1, referencePostings));
+    }
+
+    /**
+     * A document waiting to be parsed and annotated by a worker.
+     */
+    private static class QueuedDocument {
+        /**
+         * Marks the end of the collection for a worker.
+         */
+        static final QueuedDocument END = new QueuedDocument(-1, null);
+
+        final int docId;
+        final InputSource input;
+
+        QueuedDocument(int docId, InputSource input) {
+            this.docId = docId;
+            this.input = input;
+        }
+    }
+
     /**
      * Compress index built using SPIMI algorithm.
      *
@@ -139,5 +435,9 @@ public class Indexer {
         Timer tDelta = new Timer();
         cmp.createCompressedIndex(8, "delta", true);
         System.out.println(tDelta.end());
+
+        Timer tPFor = new Timer();
+        cmp.createCompressedIndex(8, "pfor", true);
+        System.out.println(tPFor.end());
     }
 }
@@ -0,0 +1,174 @@
+package index;
+
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Read access to an inverted index. Implemented by the in-memory `index.SPIMI` and by `index.IndexReader`, which
+ * reads the binary files written by `index.Compression`, so that retrieval does not depend on where the index lives.
+ * <p>
+ * Every term of the dictionary has a term id, its position in the lexicographical order of the dictionary, from 0 to
+ * `getNumberOfTerms() - 1`. A term is looked up once with `getTermId`, after which its document frequency, postings
+ * and block maxima are addressed by the term id. The methods that take a term look it up every time.
+ */
+public interface InvertedIndex {
+    /**
+     * @return document information for every document id in the collection
+     */
+    Map<Integer, DocumentInfo> getDocInfo();
+
+    /**
+     * @return the terms in the dictionary, in lexicographical order
+     */
+    Iterable<String> getTerms();
+
+    /**
+     * @return number of terms in the dictionary
+     */
+    int getNumberOfTerms();
+
+    /**
+     * @param term term to look up
+     * @return term id of the term, or -1 if the term is not in the dictionary
+     */
+    int getTermId(String term);
+
+    /**
+     * @param termId term id
+     * @return the term with this term id
+     */
+    String getTerm(int termId);
+
+    /**
+     * @param term term to look up, which does not need to be in the dictionary
+     * @return term id of the first term that is not smaller than `term`, or `getNumberOfTerms()` if there is none
+     */
+    int ceilingTermId(String term);
+
+    /**
+     * @param termId term id
+     * @return document frequency of the term
+     */
+    int getDF(int termId);
+
+    /**
+     * @param termId term id
+     * @return a cursor over the posting list of the term
+     */
+    PostingsIterator getPostings(int termId);
+
+    /**
+     * @param termId term id
+     * @return upper bounds of the normalized weights of the term, for dynamic pruning
+     */
+    BlockMaxima getBlockMaxima(int termId);
+
+    /**
+     * @param termId term id
+     * @param docId  document id
+     * @return frequency of the term in the document, 0 if it does not occur in it
+     */
+    default int getTf(int termId, int docId) {
+        PostingsIterator it = getPostings(termId);
+        return it.advance(docId) == docId ? it.tf() : 0;
+    }
+
+    /**
+     * Looks up the terms that start with a prefix. Since term ids follow the lexicographical order, these terms have
+     * consecutive term ids, starting at the ceiling of the prefix.
+     *
+     * @param prefix prefix of the terms
+     * @return term ids of the terms that start with the prefix, in increasing order
+     */
+    default int[] getTermIdsWithPrefix(String prefix) {
+        int from = ceilingTermId(prefix);
+        int to = from;
+        while (to < getNumberOfTerms() && getTerm(to).startsWith(prefix)) {
+            to++;
+        }
+        int[] termIds = new int[to - from];
+        for (int i = 0; i < termIds.length; i++) {
+            termIds[i] = from + i;
+        }
+        return termIds;
+    }
+
+    /**
+     * Iterates over the whole index in lexicographical order of the terms. Every posting list is decoded into a
+     * `PostingsEntry` when the iterator reaches its term, so only one list is held at a time.
+     *
+     * @return (term, postings) pairs of the index
+     */
+    default Iterable<Map.Entry<String, PostingsEntry>> entries() {
+        return () -> new Iterator<Map.Entry<String, PostingsEntry>>() {
+            private final Iterator<String> terms = getTerms().iterator();
+            private int termId = 0;
+
+            @Override
+            public boolean hasNext() {
+                return this.terms.hasNext();
+            }
+
+            @Override
+            public Map.Entry<String, PostingsEntry> next() {
+                String term = this.terms.next();
+                int df = getDF(this.termId);
+                int[] docIds = new int[df];
+                int[] tfs = new int[df];
+                PostingsIterator postings = getPostings(this.termId++);
+                for (int i = 0; i < df; i++) {
+                    docIds[i] = postings.nextDoc();
+                    tfs[i] = postings.tf();
+                }
+                return new AbstractMap.SimpleImmutableEntry<>(term, new PostingsEntry(docIds, tfs, df));
+            }
+        };
+    }
+
+    /**
+     * @param term term to look up
+     * @return document frequency of the term, 0 if the term is not in the dictionary
+     */
+    default int getDF(String term) {
+        int termId = getTermId(term);
+        return termId < 0 ? 0 : getDF(termId);
+    }
+
+    /**
+     * @param term  term to look up
+     * @param docId document id
+     * @return frequency of the term in the document, 0 if it does not occur in it
+     */
+    default int getTf(String term, int docId) {
+        int termId = getTermId(term);
+        return termId < 0 ? 0 : getTf(termId, docId);
+    }
+
+    /**
+     * @param term term to look up
+     * @return a cursor over the posting list of the term
+     * @throws NoSuchElementException if the term is not in the dictionary
+     */
+    default PostingsIterator getPostings(String term) {
+        int termId = getTermId(term);
+        if (termId < 0) {
+            throw new NoSuchElementException("Term not found in dictionary.");
+        }
+        return getPostings(termId);
+    }
+
+    /**
+     * @param term term to look up
+     * @return upper bounds of the normalized weights of the term, for dynamic pruning
+     * @throws NoSuchElementException if the term is not in the dictionary
+     */
+    default BlockMaxima getBlockMaxima(String term) {
+        int termId = getTermId(term);
+        if (termId < 0) {
+            throw new NoSuchElementException("Term not found in dictionary.");
+        }
+        return getBlockMaxima(termId);
+    }
+}
@@ -0,0 +1,472 @@
+package index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reads the live segments of a `SegmentedIndex` as a single `index.InvertedIndex`. The segments hold consecutive,
+ * disjoint ranges of doc ids, so the posting list of a term is the concatenation of its posting lists in the segments,
+ * and `advance` skips the segments that end before its target.
+ * <p>
+ * The dictionaries of the segments are merged when the reader is created, and term ids are positions in the merged
+ * dictionary, like in any other index. The document norms and block maxima stored in a segment only reflect the
+ * statistics of that segment, so the norms are computed again from the postings with the statistics of all segments,
+ * and the block maxima of a term are computed from its merged posting list the first time a query asks for them.
+ * <p>
+ * Computing the norms decodes the postings of all segments, and a reader computes all norms by default, so that its
+ * results are the same as for an index of the whole collection built in one go. A reader may instead be given the
+ * previous reader of the same index, to refresh in proportion to what changed: it keeps the norms of the segments the
+ * previous reader already read, also for the remaining documents of segments with new deletions, and only computes the
+ * norms of new and merged segments, with the current statistics. This mixes norms of two sets of statistics in one
+ * ranking, so it is an approximation: the norms of all segments are computed again once the number of documents, the
+ * average document length or the inverse document frequency of any term that was in the index then has changed by more
+ * than `MAX_STATISTICS_DRIFT` since the norms of all segments were last computed. The live document frequencies of a
+ * segment with new deletions are counted once, by the first reader of the segment. A reader never changes;
+ * `SegmentedIndex` hands out a new reader once segments have been added, merged or had documents deleted.
+ * <p>
+ * The postings of deleted documents are skipped by the posting lists of the reader, so no ranking method of
+ * `search.QueryParser` scores them, and the document frequencies, the collection size and the average document length
+ * only count live documents. Terms that only occur in deleted documents are left out of the dictionary.
+ */
+public class MultiSegmentReader implements InvertedIndex {
+    /**
+     * Relative change of the number of documents, of the average document length or of the inverse document frequency
+     * of a term after which the norms of all segments are computed again, instead of only the norms of the segments
+     * that changed.
+     */
+    static final double MAX_STATISTICS_DRIFT = 0.1;
+
+    private final Segment[] segments;
+
+    /**
+     * Merged dictionary of the segments, in lexicographical order.
+     */
+    private final String[] terms;
+
+    /**
+     * Term id of every term in every segment, -1 if the term is not in the segment, `segments.length` entries per term.
+     */
+    private final int[] segmentTermIds;
+
+    /**
+     * Term id in the merged dictionary of every term of every segment, -1 if the term only occurs in deleted documents.
+     */
+    private final int[][] mergedTermIds;
+
+    private final int[] documentFrequencies;
+
+    private final Map<Integer, DocumentInfo> docInfo;
+
+    private final Weighting weighting;
+
+    /**
+     * Statistics the norms of all segments were last computed with: the collection statistics, and the dictionary and
+     * document frequencies.
+     */
+    private final Weighting normStatistics;
+    private final String[] normTerms;
+    private final int[] normDocumentFrequencies;
+
+    /**
+     * Block maxima of the terms that have been queried.
+     */
+    private final Map<Integer, BlockMaxima> blockMaxima = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a reader that computes the norms of all segments.
+     *
+     * @param segments segments in order of their doc ids
+     */
+    MultiSegmentReader(List<Segment> segments) {
+        this(segments, null);
+    }
+
+    /**
+     * @param segments segments in order of their doc ids
+     * @param previous reader of an earlier state of the same index whose norms are kept for the segments it read, as
+     *                 long as the statistics have not drifted, or null to compute the norms of all segments
+     */
+    MultiSegmentReader(List<Segment> segments, MultiSegmentReader previous) {
+        this.segments = segments.toArray(new Segment[0]);
+        List<String> terms = new ArrayList<>();
+        int[] segmentTermIds = new int[16 * Math.max(1, this.segments.length)];
+        int[] documentFrequencies = new int[16];
+        this.mergedTermIds = new int[this.segments.length][];
+
+        // k-way merge of the sorted dictionaries, the number of segments is small
+        String[][] dictionaries = new String[this.segments.length][];
+        int[] positions = new int[this.segments.length];
+        for (int s = 0; s < this.segments.length; s++) {
+            List<String> dictionary = new ArrayList<>(this.segments[s].reader.getNumberOfTerms());
+            this.segments[s].reader.getTerms().forEach(dictionary::add);
+            dictionaries[s] = dictionary.toArray(new String[0]);
+            this.mergedTermIds[s] = new int[dictionaries[s].length];
+        }
+        while (true) {
+            String term = null;
+            for (int s = 0; s < this.segments.length; s++) {
+                if (positions[s] < dictionaries[s].length &&
+                        (term == null || dictionaries[s][positions[s]].compareTo(term) < 0)) {
+                    term = dictionaries[s][positions[s]];
+                }
+            }
+            if (term == null) {
+                break;
+            }
+            int termId = terms.size();
+            if ((termId + 1) * this.segments.length > segmentTermIds.length) {
+                segmentTermIds = Arrays.copyOf(segmentTermIds, 2 * segmentTermIds.length);
+                documentFrequencies = Arrays.copyOf(documentFrequencies, 2 * documentFrequencies.length);
+            }
+            int df = 0;
+            for (int s = 0; s < this.segments.length; s++) {
+                int segmentTermId = -1;
+                if (positions[s] < dictionaries[s].length && dictionaries[s][positions[s]].equals(term)) {
+                    segmentTermId = positions[s]++;
+                    df += this.segments[s].getLiveDocumentFrequency(segmentTermId);
+                }
+                segmentTermIds[termId * this.segments.length + s] = segmentTermId;
+            }
+            for (int s = 0; s < this.segments.length; s++) {
+                int segmentTermId = segmentTermIds[termId * this.segments.length + s];
+                if (segmentTermId >= 0) {
+                    this.mergedTermIds[s][segmentTermId] = df > 0 ? termId : -1;
+                }
+            }
+            if (df > 0) {
+                terms.add(term);
+                documentFrequencies[termId] = df;
+            }
+        }
+        this.terms = terms.toArray(new String[0]);
+        this.segmentTermIds = segmentTermIds;
+        this.documentFrequencies = documentFrequencies;
+
+        // the segments whose norms the previous reader computed, with the document information holding them; a segment
+        // with new deletions keeps its reader, and the norms of its remaining documents
+        Set<IndexReader> unchanged = Collections.newSetFromMap(new IdentityHashMap<>());
+        if (previous != null) {
+            for (Segment segment : previous.segments) {
+                unchanged.add(segment.reader);
+            }
+        }
+        int numberOfDocuments = 0;
+        for (Segment segment : this.segments) {
+            numberOfDocuments += segment.getNumberOfDocuments();
+        }
+        this.docInfo = new HashMap<>((int) (numberOfDocuments / 0.75f) + 1);
+        for (Segment segment : this.segments) {
+            for (Map.Entry<Integer, DocumentInfo> entry : segment.reader.getDocInfo().entrySet()) {
+                if (segment.isDeleted(entry.getKey())) {
+                    continue;
+                }
+                // the document information of a segment is shared by all readers of the segment, the norms are not
+                DocumentInfo doc = unchanged.contains(segment.reader) ? previous.docInfo.get(entry.getKey()) : null;
+                if (doc == null) {
+                    doc = entry.getValue();
+                    doc = new DocumentInfo(doc.getMaxTf(), doc.getDocLen(), 0, 0);
+                }
+                this.docInfo.put(entry.getKey(), doc);
+            }
+        }
+        this.weighting = Weighting.of(this.docInfo);
+
+        if (previous == null || drifted(previous)) {
+            // documents of unchanged segments may still hold the norms of the previous reader
+            for (Map.Entry<Integer, DocumentInfo> entry : this.docInfo.entrySet()) {
+                DocumentInfo doc = entry.getValue();
+                entry.setValue(new DocumentInfo(doc.getMaxTf(), doc.getDocLen(), 0, 0));
+            }
+            unchanged.clear();
+            this.normStatistics = this.weighting;
+            this.normTerms = this.terms;
+            this.normDocumentFrequencies = this.documentFrequencies;
+        } else {
+            this.normStatistics = previous.normStatistics;
+            this.normTerms = previous.normTerms;
+            this.normDocumentFrequencies = previous.normDocumentFrequencies;
+        }
+        for (int s = 0; s < this.segments.length; s++) {
+            if (!unchanged.contains(this.segments[s].reader)) {
+                computeNorms(s);
+            }
+        }
+    }
+
+    /**
+     * @param previous reader whose norms would be kept
+     * @return true if the number of documents, the average document length or the inverse document frequency of a term
+     * that was in the index when the norms of the previous reader were computed changed by more than
+     * `MAX_STATISTICS_DRIFT`
+     */
+    private boolean drifted(MultiSegmentReader previous) {
+        Weighting before = previous.normStatistics;
+        if (Math.abs(this.weighting.getCollectionSize() - before.getCollectionSize()) >
+                MAX_STATISTICS_DRIFT * before.getCollectionSize() ||
+                Math.abs(this.weighting.getAvgDocLen() - before.getAvgDocLen()) >
+                        MAX_STATISTICS_DRIFT * before.getAvgDocLen()) {
+            return true;
+        }
+        // terms that are new only occur in new documents, whose norms are computed with the current statistics
+        int termId = 0;
+        for (int t = 0; t < previous.normTerms.length; t++) {
+            while (termId < this.terms.length && this.terms[termId].compareTo(previous.normTerms[t]) < 0) {
+                termId++;
+            }
+            if (termId == this.terms.length || !this.terms[termId].equals(previous.normTerms[t])) {
+                // only occurs in deleted documents now, which are not scored
+                continue;
+            }
+            double idfBefore = before.idf(previous.normDocumentFrequencies[t]);
+            double idf = this.weighting.idf(this.documentFrequencies[termId]);
+            if (Math.abs(idf - idfBefore) > MAX_STATISTICS_DRIFT * Math.max(idf, idfBefore)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Computes the L2 norm of every live document of a segment under the w1 and w2 weightings with the statistics of
+     * all segments. This decodes all postings of the segment once, which is far cheaper than analyzing its documents
+     * again.
+     *
+     * @param s position of the segment
+     */
+    private void computeNorms(int s) {
+        Segment segment = this.segments[s];
+        int numberOfDocIds = segment.lastDocId - segment.firstDocId + 1;
+        DocumentInfo[] docs = new DocumentInfo[numberOfDocIds];
+        for (int docId : segment.reader.getDocInfo().keySet()) {
+            if (!segment.isDeleted(docId)) {
+                docs[docId - segment.firstDocId] = this.docInfo.get(docId);
+            }
+        }
+        double[] sumsW1 = new double[numberOfDocIds];
+        double[] sumsW2 = new double[numberOfDocIds];
+        int[] mergedTermIds = this.mergedTermIds[s];
+        for (int segmentTermId = 0; segmentTermId < mergedTermIds.length; segmentTermId++) {
+            if (mergedTermIds[segmentTermId] < 0) {
+                continue;
+            }
+            int df = this.documentFrequencies[mergedTermIds[segmentTermId]];
+            PostingsIterator postings = segment.reader.getPostings(segmentTermId);
+            if (segment.hasDeletions()) {
+                postings = new LivePostingsIterator(postings, segment);
+            }
+            for (int docId = postings.nextDoc(); docId != PostingsIterator.NO_MORE_DOCS; docId = postings.nextDoc()) {
+                int i = docId - segment.firstDocId;
+                double w1 = this.weighting.weight("w1", postings.tf(), df, docs[i]);
+                double w2 = this.weighting.weight("w2", postings.tf(), df, docs[i]);
+                sumsW1[i] += w1 * w1;
+                sumsW2[i] += w2 * w2;
+            }
+        }
+        for (int i = 0; i < numberOfDocIds; i++) {
+            if (docs[i] != null) {
+                docs[i].setNorms(Math.sqrt(sumsW1[i]), Math.sqrt(sumsW2[i]));
+            }
+        }
+    }
+
+    /**
+     * @param segments live segments of an index
+     * @return true if this reader reads exactly these segments
+     */
+    boolean reads(List<Segment> segments) {
+        if (segments.size() != this.segments.length) {
+            return false;
+        }
+        for (int s = 0; s < this.segments.length; s++) {
+            if (segments.get(s) != this.segments[s]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return number of segments read
+     */
+    public int getNumberOfSegments() {
+        return this.segments.length;
+    }
+
+    @Override
+    public Map<Integer, DocumentInfo> getDocInfo() {
+        return this.docInfo;
+    }
+
+    @Override
+    public Iterable<String> getTerms() {
+        return Arrays.asList(this.terms);
+    }
+
+    @Override
+    public int getNumberOfTerms() {
+        return this.terms.length;
+    }
+
+    @Override
+    public int getTermId(String term) {
+        int termId = Arrays.binarySearch(this.terms, term);
+        return termId < 0 ? -1 : termId;
+    }
+
+    @Override
+    public String getTerm(int termId) {
+        if (termId < 0 || termId >= this.terms.length) {
+            throw new IndexOutOfBoundsException("Term id " + termId + " of " + this.terms.length + " terms");
+        }
+        return this.terms[termId];
+    }
+
+    @Override
+    public int ceilingTermId(String term) {
+        int termId = Arrays.binarySearch(this.terms, term);
+        return termId < 0 ? -1 - termId : termId;
+    }
+
+    @Override
+    public int getDF(int termId) {
+        return this.documentFrequencies[termId];
+    }
+
+    @Override
+    public PostingsIterator getPostings(int termId) {
+        List<PostingsIterator> parts = new ArrayList<>(this.segments.length);
+        List<Integer> lastDocIds = new ArrayList<>(this.segments.length);
+        for (int s = 0; s < this.segments.length; s++) {
+            int segmentTermId = this.segmentTermIds[termId * this.segments.length + s];
+            if (segmentTermId >= 0) {
+                PostingsIterator part = this.segments[s].reader.getPostings(segmentTermId);
+                parts.add(this.segments[s].hasDeletions() ? new LivePostingsIterator(part, this.segments[s]) : part);
+                lastDocIds.add(this.segments[s].lastDocId);
+            }
+        }
+        if (parts.size() == 1) {
+            return parts.get(0);
+        }
+        int[] ends = new int[lastDocIds.size()];
+        for (int i = 0; i < ends.length; i++) {
+            ends[i] = lastDocIds.get(i);
+        }
+        return new ConcatenatedPostingsIterator(parts.toArray(new PostingsIterator[0]), ends);
+    }
+
+    /**
+     * Computes the block maxima from the merged posting list on first use, with the norms of this reader.
+     */
+    @Override
+    public BlockMaxima getBlockMaxima(int termId) {
+        return this.blockMaxima.computeIfAbsent(termId, t ->
+                BlockMaxima.compute(getPostings(t), getDF(t), this.weighting, this.docInfo));
+    }
+
+    /**
+     * Skips the postings of the deleted documents of a segment.
+     */
+    private static class LivePostingsIterator implements PostingsIterator {
+        private final PostingsIterator postings;
+        private final Segment segment;
+
+        LivePostingsIterator(PostingsIterator postings, Segment segment) {
+            this.postings = postings;
+            this.segment = segment;
+        }
+
+        private int skipDeleted(int doc) {
+            while (doc != NO_MORE_DOCS && this.segment.isDeleted(doc)) {
+                doc = this.postings.nextDoc();
+            }
+            return doc;
+        }
+
+        @Override
+        public int nextDoc() {
+            return skipDeleted(this.postings.nextDoc());
+        }
+
+        @Override
+        public int advance(int target) {
+            return skipDeleted(this.postings.advance(target));
+        }
+
+        @Override
+        public int docId() {
+            return this.postings.docId();
+        }
+
+        @Override
+        public int tf() {
+            return this.postings.tf();
+        }
+    }
+
+    /**
+     * Iterates over the posting lists of a term in consecutive segments, one after the other.
+     */
+    private static class ConcatenatedPostingsIterator implements PostingsIterator {
+        private final PostingsIterator[] parts;
+
+        /**
+         * Last doc id of the range of the segment of every part.
+         */
+        private final int[] lastDocIds;
+
+        private int current = 0;
+        private int docId = -1;
+
+        ConcatenatedPostingsIterator(PostingsIterator[] parts, int[] lastDocIds) {
+            this.parts = parts;
+            this.lastDocIds = lastDocIds;
+        }
+
+        @Override
+        public int nextDoc() {
+            while (this.current < this.parts.length) {
+                int doc = this.parts[this.current].nextDoc();
+                if (doc != NO_MORE_DOCS) {
+                    return this.docId = doc;
+                }
+                this.current++;
+            }
+            return this.docId = NO_MORE_DOCS;
+        }
+
+        @Override
+        public int advance(int target) {
+            if (this.docId >= target) {
+                return this.docId;
+            }
+            while (this.current < this.parts.length) {
+                // a segment that ends before the target is skipped without decoding it
+                if (this.lastDocIds[this.current] >= target) {
+                    int doc = this.parts[this.current].advance(target);
+                    if (doc != NO_MORE_DOCS) {
+                        return this.docId = doc;
+                    }
+                }
+                this.current++;
+            }
+            return this.docId = NO_MORE_DOCS;
+        }
+
+        @Override
+        public int docId() {
+            return this.docId;
+        }
+
+        @Override
+        public int tf() {
+            return this.current < this.parts.length ? this.parts[this.current].tf() : 0;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package index;
+
+import util.BitWriter;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Patched frame of reference (PForDelta). The doc id gaps and the term frequencies of a block are written as two
+ * separate arrays, and every array is bit packed with a single bit width `b`, chosen to minimize the size of the array.
+ * Values that do not fit in `b` bits are exceptions: their low `b` bits are packed with the others, and their position
+ * and high bits are stored after the packed values. Since values are at least 1, `value - 1` is stored.
+ * <p>
+ * An array is written as the bit width and the number of exceptions in a byte each, the packed values in 64-bit words,
+ * and the exceptions as a byte for the position followed by 4 bytes for the high bits. Decoding an array is a loop
+ * over the packed words without branches or bit-by-bit reads, followed by patching the few exceptions, which is much
+ * faster than decoding gamma or delta codes at the cost of some space. The loop is scalar: every value is read at its
+ * own shift, possibly from two words, which the JIT does not auto-vectorize.
+ */
+class PForDeltaCodec implements PostingsCodec {
+    /**
+     * Size in bits of an exception: position and high bits.
+     */
+    private static final int EXCEPTION_SIZE = 8 + 32;
+
+    @Override
+    public void encodeBlock(int[] gaps, int[] tfs, int length, BitWriter writer) {
+        encodeArray(gaps, length, writer);
+        encodeArray(tfs, length, writer);
+    }
+
+    @Override
+    public Decoder decoder(ByteBuffer buffer) {
+        // the packed words of the largest array, plus one so that a value at the end of the last word can read past it
+        long[] words = new long[BlockMaxima.BLOCK_SIZE * 32 / 64 + 1];
+        return (position, length, gaps, tfs) -> {
+            position = decodeArray(buffer, position, length, gaps, words);
+            decodeArray(buffer, position, length, tfs, words);
+        };
+    }
+
+    private static void encodeArray(int[] values, int length, BitWriter writer) {
+        int b = bitWidth(values, length);
+        int numberOfExceptions = 0;
+        for (int i = 0; i < length; i++) {
+            if (bitLength(values[i] - 1) > b) {
+                numberOfExceptions++;
+            }
+        }
+        writer.writeBits(b, 8);
+        writer.writeBits(numberOfExceptions, 8);
+        for (int i = 0; i < length; i++) {
+            writer.writeBits(values[i] - 1, b);
+        }
+        // pad the packed values to whole words
+        writer.writeBits(0, (int) ((64 - (long) length * b % 64) % 64));
+        for (int i = 0; i < length; i++) {
+            if (bitLength(values[i] - 1) > b) {
+                writer.writeBits(i, 8);
+                writer.writeBits((values[i] - 1) >>> b, 32);
+            }
+        }
+    }
+
+    /**
+     * Chooses the bit width for which the packed values and the exceptions take the least space.
+     */
+    private static int bitWidth(int[] values, int length) {
+        // number of values of every bit length
+        int[] counts = new int[33];
+        for (int i = 0; i < length; i++) {
+            counts[bitLength(values[i] - 1)]++;
+        }
+        int best = 32;
+        long bestSize = Long.MAX_VALUE;
+        int exceptions = 0;   // number of values longer than b bits
+        for (int b = 32; b >= 0; b--) {
+            long size = ((long) length * b + 63) / 64 * 64 + (long) exceptions * EXCEPTION_SIZE;
+            if (size <= bestSize) {
+                best = b;
+                bestSize = size;
+            }
+            exceptions += counts[b];
+        }
+        return best;
+    }
+
+    private static int bitLength(int value) {
+        return 32 - Integer.numberOfLeadingZeros(value);
+    }
+
+    /**
+     * @param words scratch space for the packed words, at least one word longer than the packed values
+     * @return position after the array
+     */
+    private static int decodeArray(ByteBuffer buffer, int position, int length, int[] values, long[] words) {
+        int b = buffer.get(position) & 0xFF;
+        int numberOfExceptions = buffer.get(position + 1) & 0xFF;
+        position += 2;
+        int numberOfWords = (int) (((long) length * b + 63) / 64);
+        for (int i = 0; i < numberOfWords; i++) {
+            words[i] = buffer.getLong(position + 8 * i);
+        }
+        position += 8 * numberOfWords;
+        unpack(words, b, length, values);
+        for (int i = 0; i < numberOfExceptions; i++) {
+            int index = buffer.get(position) & 0xFF;
+            values[index] |= buffer.getInt(position + 1) << b;
+            position += 5;
+        }
+        for (int i = 0; i < length; i++) {
+            values[i] += 1;
+        }
+        return position;
+    }
+
+    /**
+     * Unpacks `length` values of `b` bits, most significant bit first. Scalar: a layout that vectorizes, with the
+     * values of a block interleaved across lanes as in SIMD-BP128, or a kernel per bit width would be needed for SIMD.
+     */
+    private static void unpack(long[] words, int b, int length, int[] values) {
+        if (b == 0) {
+            for (int i = 0; i < length; i++) {
+                values[i] = 0;
+            }
+            return;
+        }
+        int shift = 64 - b;
+        for (int i = 0; i < length; i++) {
+            int bit = i * b;
+            int word = bit >>> 6;
+            int offset = bit & 63;
+            // the second shift is split in two, since a shift by 64 leaves the value unchanged
+            long value = (words[word] << offset) | (words[word + 1] >>> 1 >>> (63 - offset));
+            values[i] = (int) (value >>> shift);
+        }
+    }
+}
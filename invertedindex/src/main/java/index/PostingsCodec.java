@@ -0,0 +1,60 @@
+package index;
+
+import util.BitWriter;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes the blocks of a compressed posting list. A block holds up to `BlockMaxima.BLOCK_SIZE` postings, as the doc id
+ * gaps (the first gap of a block is from the last doc id of the previous block) and the term frequencies, all of
+ * which are at least 1. Blocks are written byte aligned, so a block can be decoded on its own.
+ */
+public interface PostingsCodec {
+    /**
+     * @param name "gamma", "delta" or "pfor"
+     * @return the codec with this name
+     */
+    static PostingsCodec forName(String name) {
+        switch (name) {
+            case "gamma":
+                return new EliasCodec(true);
+            case "delta":
+                return new EliasCodec(false);
+            case "pfor":
+                return new PForDeltaCodec();
+            default:
+                throw new IllegalArgumentException("Unknown codec " + name);
+        }
+    }
+
+    /**
+     * Encodes a block of postings.
+     *
+     * @param gaps   doc id gaps
+     * @param tfs    term frequencies
+     * @param length number of postings in the block
+     * @param writer writer to append the block to, ends byte aligned
+     */
+    void encodeBlock(int[] gaps, int[] tfs, int length, BitWriter writer);
+
+    /**
+     * @param buffer buffer to read from, only absolute reads are used so the buffer can be shared
+     * @return a decoder of the blocks in the buffer
+     */
+    Decoder decoder(ByteBuffer buffer);
+
+    /**
+     * Decodes blocks of postings written by `encodeBlock`. A decoder keeps the scratch space it decodes with between
+     * blocks, so decoding a block allocates nothing; it is therefore not thread safe, every posting list iterator
+     * has one of its own.
+     */
+    interface Decoder {
+        /**
+         * @param position byte position of the block
+         * @param length   number of postings in the block
+         * @param gaps     array to decode the doc id gaps into
+         * @param tfs      array to decode the term frequencies into
+         */
+        void decodeBlock(int position, int length, int[] gaps, int[] tfs);
+    }
+}
@@ -1,43 +1,217 @@
 package index;
 
-import java.io.Serializable;
-import java.util.LinkedHashMap;
+import java.util.Arrays;
+import java.util.BitSet;
 
 /**
- * Represents a posting entry for a term in the dictionary.
+ * Represents a posting entry for a term in the dictionary. The posting list is held in two growable parallel arrays of
+ * doc ids and term frequencies. Postings are only ever appended at the tail, since SPIMI sees the doc ids in increasing
+ * order, so a posting takes 8 bytes instead of a map entry with a boxed doc id and a term weight object.
  */
-public class PostingsEntry implements Serializable {
+public class PostingsEntry {
     private int documentFrequency;
-    private LinkedHashMap<Integer, TermWeight> postingsList;
+    private int[] docIds;
+    private int[] tfs;
 
     public PostingsEntry(int docId) {
         this.documentFrequency = 1;
-        this.postingsList = new LinkedHashMap<>(2, 0.99f);
-        this.postingsList.put(docId, new TermWeight());
+        this.docIds = new int[]{docId};
+        this.tfs = new int[]{1};
+    }
+
+    /**
+     * Creates a posting entry from a posting list that is already built, sorted by doc id. The arrays are not copied.
+     *
+     * @param docIds            doc ids
+     * @param tfs               term frequencies
+     * @param documentFrequency number of postings in the arrays
+     */
+    public PostingsEntry(int[] docIds, int[] tfs, int documentFrequency) {
+        this.documentFrequency = documentFrequency;
+        this.docIds = docIds;
+        this.tfs = tfs;
     }
 
     public int getDocumentFrequency() {
         return documentFrequency;
     }
 
-    public LinkedHashMap<Integer, TermWeight> getPostingsList() {
-        return this.postingsList;
+    /**
+     * @param i position of the posting in the list
+     * @return doc id of the posting
+     */
+    public int getDocId(int i) {
+        return this.docIds[i];
+    }
+
+    /**
+     * @param i position of the posting in the list
+     * @return term frequency of the posting
+     */
+    public int getTf(int i) {
+        return this.tfs[i];
     }
 
+    /**
+     * @return doc id at the end of the posting list, the largest doc id seen so far
+     */
+    public int getLastDocId() {
+        return this.docIds[this.documentFrequency - 1];
+    }
+
+    /**
+     * Looks up the term frequency in a document with a binary search.
+     *
+     * @param docId document id
+     * @return term frequency in the document, 0 if the term does not occur in it
+     */
+    public int getTfInDocument(int docId) {
+        int i = Arrays.binarySearch(this.docIds, 0, this.documentFrequency, docId);
+        return i < 0 ? 0 : this.tfs[i];
+    }
+
+    /**
+     * Counts an occurrence of the term in a document. Doc ids have to be seen in increasing order, so the document is
+     * either the last one in the list or a new one that is appended.
+     *
+     * @param docId document id
+     * @return the current `index.PostingsEntry` object
+     */
     public PostingsEntry update(int docId) {
-        if (!this.postingsList.containsKey(docId)) {
-            this.documentFrequency += 1;
+        int last = this.documentFrequency - 1;
+        if (this.docIds[last] == docId) {
+            this.tfs[last]++;
+            return this;
+        }
+        if (docId < this.docIds[last]) {
+            throw new IllegalArgumentException("Doc id " + docId + " is added after doc id " + this.docIds[last]);
+        }
+        if (this.documentFrequency == this.docIds.length) {
+            int capacity = this.docIds.length + (this.docIds.length >> 1) + 1;
+            this.docIds = Arrays.copyOf(this.docIds, capacity);
+            this.tfs = Arrays.copyOf(this.tfs, capacity);
         }
-        this.postingsList.computeIfPresent(docId, (k, v) -> v.incrementTf());
-        this.postingsList.putIfAbsent(docId, new TermWeight());
+        this.docIds[this.documentFrequency] = docId;
+        this.tfs[this.documentFrequency] = 1;
+        this.documentFrequency++;
         return this;
     }
 
+    /**
+     * Merges the posting list of the same term from another part of the collection into this one. When all doc ids of
+     * the other list follow the ones in this list, which is the case for consecutive blocks, the other list is simply
+     * appended. Otherwise the two lists are merged by doc id.
+     *
+     * @param other posting entry to merge
+     * @return the current `index.PostingsEntry` object
+     */
+    public PostingsEntry merge(PostingsEntry other) {
+        int size = this.documentFrequency + other.documentFrequency;
+        if (other.docIds[0] > getLastDocId()) {
+            this.docIds = Arrays.copyOf(this.docIds, size);
+            this.tfs = Arrays.copyOf(this.tfs, size);
+            System.arraycopy(other.docIds, 0, this.docIds, this.documentFrequency, other.documentFrequency);
+            System.arraycopy(other.tfs, 0, this.tfs, this.documentFrequency, other.documentFrequency);
+            this.documentFrequency = size;
+        } else {
+            // both lists are sorted by doc id
+            int[] mergedDocIds = new int[size];
+            int[] mergedTfs = new int[size];
+            int l = 0;
+            int r = 0;
+            int n = 0;
+            while (l < this.documentFrequency || r < other.documentFrequency) {
+                if (r == other.documentFrequency ||
+                        (l < this.documentFrequency && this.docIds[l] < other.docIds[r])) {
+                    mergedDocIds[n] = this.docIds[l];
+                    mergedTfs[n++] = this.tfs[l++];
+                } else if (l == this.documentFrequency || other.docIds[r] < this.docIds[l]) {
+                    mergedDocIds[n] = other.docIds[r];
+                    mergedTfs[n++] = other.tfs[r++];
+                } else {
+                    mergedDocIds[n] = this.docIds[l];
+                    mergedTfs[n++] = this.tfs[l++] + other.tfs[r++];
+                }
+            }
+            this.docIds = mergedDocIds;
+            this.tfs = mergedTfs;
+            this.documentFrequency = n;
+        }
+        return this;
+    }
+
+    /**
+     * Removes the postings of deleted documents.
+     *
+     * @param deletedDocs doc ids of the deleted documents
+     * @return this object if none of its documents is deleted, otherwise a new posting entry without them, which may
+     * be empty
+     */
+    public PostingsEntry purge(BitSet deletedDocs) {
+        int n = 0;
+        while (n < this.documentFrequency && !deletedDocs.get(this.docIds[n])) {
+            n++;
+        }
+        if (n == this.documentFrequency) {
+            return this;
+        }
+        int[] liveDocIds = Arrays.copyOf(this.docIds, this.documentFrequency);
+        int[] liveTfs = Arrays.copyOf(this.tfs, this.documentFrequency);
+        for (int i = n + 1; i < this.documentFrequency; i++) {
+            if (!deletedDocs.get(this.docIds[i])) {
+                liveDocIds[n] = this.docIds[i];
+                liveTfs[n++] = this.tfs[i];
+            }
+        }
+        return new PostingsEntry(liveDocIds, liveTfs, n);
+    }
+
+    /**
+     * @return a cursor over the posting list, `advance` is a binary search
+     */
+    public PostingsIterator iterator() {
+        return new PostingsIterator() {
+            private int current = -1;
+
+            @Override
+            public int nextDoc() {
+                if (this.current < documentFrequency) {
+                    this.current++;
+                }
+                return docId();
+            }
+
+            @Override
+            public int advance(int target) {
+                if (this.current >= 0 && docId() >= target) {
+                    return docId();
+                }
+                int i = Arrays.binarySearch(docIds, this.current + 1, documentFrequency, target);
+                this.current = i < 0 ? -i - 1 : i;
+                return docId();
+            }
+
+            @Override
+            public int docId() {
+                if (this.current < 0) {
+                    return -1;
+                }
+                return this.current < documentFrequency ? docIds[this.current] : NO_MORE_DOCS;
+            }
+
+            @Override
+            public int tf() {
+                return this.current >= 0 && this.current < documentFrequency ? tfs[this.current] : 0;
+            }
+        };
+    }
+
     @Override
     public String toString() {
         return "index.PostingsEntry{" +
                 "documentFrequency=" + documentFrequency +
-                ", postingsList=" + postingsList +
+                ", docIds=" + Arrays.toString(Arrays.copyOf(docIds, documentFrequency)) +
+                ", tfs=" + Arrays.toString(Arrays.copyOf(tfs, documentFrequency)) +
                 '}';
     }
 }
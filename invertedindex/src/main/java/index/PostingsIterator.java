@@ -0,0 +1,44 @@
+package index;
+
+/**
+ * A cursor over the posting list of a term. Doc ids are returned in increasing order, which is the order SPIMI builds
+ * the posting lists in.
+ */
+public interface PostingsIterator {
+    /**
+     * Returned by `nextDoc` once the posting list is exhausted.
+     */
+    int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+    /**
+     * Moves the cursor to the next posting.
+     *
+     * @return doc id of the next posting, or `NO_MORE_DOCS` at the end of the list
+     */
+    int nextDoc();
+
+    /**
+     * Moves the cursor to the first posting with a doc id of at least `target`. The cursor is not moved if it is
+     * already there.
+     *
+     * @param target doc id to move to
+     * @return doc id of the posting, or `NO_MORE_DOCS` if there is none
+     */
+    default int advance(int target) {
+        int doc = docId();
+        while (doc < target) {
+            doc = nextDoc();
+        }
+        return doc;
+    }
+
+    /**
+     * @return doc id at the current position, -1 before the first call to `nextDoc`
+     */
+    int docId();
+
+    /**
+     * @return term frequency of the term in the current document
+     */
+    int tf();
+}
@@ -1,14 +1,28 @@
 package index;
 
-import java.io.Serializable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.stream.StreamSupport;
 
 /**
  * Implements a variant of the single pass in-memory indexing algorithm as described in the textbook by Manning & others
- * In the original single-pass algorithm, the dictionary is sorted after the program runs out of memory. In this case,
- * we use a SortedMap instead of a HashMap to avoid sorting the dictionary at the end.
+ * As in the original single-pass algorithm, the dictionary of a block is a hash, `index.TermDictionary`, which maps the
+ * terms to dense term ids in the order they are seen, and the posting lists are kept in an array indexed by these ids.
+ * The dictionary is only sorted when the block is written out or read as an `index.InvertedIndex`, whose term ids are
+ * the positions of the terms in the sorted dictionary.
+ * <p>
+ * When a memory budget is given, the block in memory is written to disk as a sorted run once its estimated size goes
+ * over the budget, and a fresh block is started. The runs are merged at the end by `entries`. The methods of
+ * `index.InvertedIndex` are only available as long as the whole index is in memory.
+ * <p>
+ * Once all documents have been inverted, the index can be read by several threads at the same time: the sorted
+ * dictionary and the document norms are built lazily on first use, under the lock of the index, and never change
+ * afterwards.
  */
-public class SPIMI implements Serializable {
+public class SPIMI implements InvertedIndex {
     private static final String[] SET_VALUES = new String[]{"a", "all", "an", "and", "any", "are", "as", "be", "been",
             "but", "by ", "few", "for", "have", "he", "her", "here", "him", "his", "how", "i", "in", "is", "it", "its",
             "many", "me", "my", "none", "of", "on ", "or", "our", "she", "some", "the", "their", "them", "there",
@@ -22,24 +36,454 @@ public class SPIMI implements Serializable {
     private Map<Integer, DocumentInfo> docInfo = new HashMap<>();
 
     /**
-     * A SortedMap of dictionary to postings list.
+     * Dictionary of the block in memory.
      */
-    private Map<String, PostingsEntry> invertedIndex = new TreeMap<>();
+    private TermDictionary dictionary = new TermDictionary();
 
-    public Map<Integer, DocumentInfo> getDocInfo() {
+    /**
+     * Posting lists of the block in memory, indexed by the term ids of `dictionary`.
+     */
+    private PostingsEntry[] postings = new PostingsEntry[16];
+
+    /**
+     * Term ids of `dictionary` in lexicographical order of the terms, and the position of every term id in that order,
+     * computed when the block is first read after a term has been added.
+     */
+    private int[] sortedTermIds;
+    private int[] ranks;
+
+    /**
+     * Approximate heap used by a term in the dictionary: its slots in the hash table and in the term and posting list
+     * arrays, the String, the PostingsEntry and its two arrays, without the characters of the term.
+     */
+    private static final long BYTES_PER_TERM = 120;
+
+    /**
+     * Approximate heap used by a posting: a doc id and a term frequency in the arrays of the posting list, which have
+     * up to half of their capacity unused.
+     */
+    private static final long BYTES_PER_POSTING = 12;
+
+    /**
+     * Estimated heap size of the block in memory after which it is written to disk.
+     */
+    private final long memoryBudget;
+
+    /**
+     * Folder the runs are written to.
+     */
+    private final String runFolder;
+
+    /**
+     * Paths of the runs written to disk so far, in order.
+     */
+    private final List<String> runs = new ArrayList<>();
+
+    /**
+     * Indexes of earlier documents that are read like runs, see `fromSegments`.
+     */
+    private final List<InvertedIndex> segments = new ArrayList<>();
+
+    /**
+     * Doc ids of the deleted documents, whose postings are purged when the index is read or written.
+     */
+    private final BitSet deletedDocs = new BitSet();
+
+    /**
+     * Whether the postings of the deleted documents have been purged from the block in memory.
+     */
+    private boolean blockPurged = true;
+
+    private long estimatedBlockSize = 0;
+    private int lastDocId = -1;
+
+    /**
+     * Document information of the document with `lastDocId`.
+     */
+    private DocumentInfo currentDocument;
+
+    /**
+     * Whether the document norms are up to date with the postings in the index.
+     */
+    private boolean normsComputed = false;
+
+    /**
+     * Creates an index that is held in memory entirely.
+     */
+    public SPIMI() {
+        this(Long.MAX_VALUE, null);
+    }
+
+    /**
+     * Creates an index that writes blocks to disk when they go over the memory budget.
+     *
+     * @param memoryBudget estimated heap size in bytes after which a block is written to disk
+     * @param runFolder    folder to write the runs to, created if it does not exist
+     */
+    public SPIMI(long memoryBudget, String runFolder) {
+        this.memoryBudget = memoryBudget;
+        this.runFolder = runFolder;
+    }
+
+    /**
+     * @return document information of every document, with the document norms computed from the current index
+     */
+    @Override
+    public synchronized Map<Integer, DocumentInfo> getDocInfo() {
+        if (!normsComputed) {
+            computeNorms();
+        }
         return docInfo;
     }
 
-    public Map<String, PostingsEntry> getInvertedIndex() {
-        return invertedIndex;
+    /**
+     * Computes the L2 norm of every document under the w1 and w2 weightings. This walks all postings of the index once,
+     * so that queries only need to read the posting lists of their own terms.
+     */
+    private void computeNorms() {
+        Weighting weighting = Weighting.of(docInfo);
+        Map<Integer, double[]> sumOfSquares = new HashMap<>();
+        for (Map.Entry<String, PostingsEntry> entry : entries()) {
+            PostingsEntry postings = entry.getValue();
+            int df = postings.getDocumentFrequency();
+            for (int i = 0; i < df; i++) {
+                DocumentInfo doc = docInfo.get(postings.getDocId(i));
+                int tf = postings.getTf(i);
+                double w1 = weighting.weight("w1", tf, df, doc);
+                double w2 = weighting.weight("w2", tf, df, doc);
+                double[] sums = sumOfSquares.computeIfAbsent(postings.getDocId(i), k -> new double[2]);
+                sums[0] += w1 * w1;
+                sums[1] += w2 * w2;
+            }
+        }
+        for (Map.Entry<Integer, DocumentInfo> entry : docInfo.entrySet()) {
+            double[] sums = sumOfSquares.getOrDefault(entry.getKey(), new double[2]);
+            entry.getValue().setNorms(Math.sqrt(sums[0]), Math.sqrt(sums[1]));
+        }
+        normsComputed = true;
+    }
+
+    /**
+     * Sorts the dictionary of the block in memory, if terms have been added since it was last sorted.
+     */
+    private synchronized void sortDictionary() {
+        if (!blockPurged) {
+            purgeBlock();
+        }
+        if (sortedTermIds == null) {
+            sortedTermIds = dictionary.sortedTermIds();
+            ranks = new int[sortedTermIds.length];
+            for (int i = 0; i < sortedTermIds.length; i++) {
+                ranks[sortedTermIds[i]] = i;
+            }
+        }
+    }
+
+    /**
+     * @param termId term id, the position of the term in the sorted dictionary
+     * @return posting list of the term
+     */
+    private PostingsEntry postingsOf(int termId) {
+        requireInMemory();
+        sortDictionary();
+        return postings[sortedTermIds[termId]];
+    }
+
+    @Override
+    public Iterable<String> getTerms() {
+        requireInMemory();
+        sortDictionary();
+        int[] termIds = sortedTermIds;
+        return () -> Arrays.stream(termIds).mapToObj(dictionary::term).iterator();
+    }
+
+    @Override
+    public int getNumberOfTerms() {
+        requireInMemory();
+        synchronized (this) {
+            if (!blockPurged) {
+                purgeBlock();
+            }
+        }
+        return dictionary.size();
+    }
+
+    /**
+     * The term is looked up in the hash, only the position of its term id in the sorted dictionary is needed.
+     */
+    @Override
+    public int getTermId(String term) {
+        requireInMemory();
+        int termId = dictionary.get(term);
+        if (termId < 0) {
+            return -1;
+        }
+        sortDictionary();
+        return ranks[termId];
+    }
+
+    @Override
+    public String getTerm(int termId) {
+        requireInMemory();
+        sortDictionary();
+        return dictionary.term(sortedTermIds[termId]);
+    }
+
+    @Override
+    public int ceilingTermId(String term) {
+        requireInMemory();
+        sortDictionary();
+        int low = 0;
+        int high = sortedTermIds.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (dictionary.term(sortedTermIds[mid]).compareTo(term) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return true if blocks of the index have been written to disk
+     */
+    public boolean hasRuns() {
+        return !runs.isEmpty();
+    }
+
+    private void requireInMemory() {
+        if (hasRuns() || !segments.isEmpty()) {
+            throw new IllegalStateException("Index has been written to disk in " + runs.size() +
+                    " runs, use entries() to read it.");
+        }
+    }
+
+    /**
+     * Iterates over the whole index in lexicographical order of the terms. If blocks have been written to disk, the
+     * runs and the block in memory are merged while iterating, and every iteration reads the runs again.
+     *
+     * @return (term, postings) pairs of the index
+     */
+    @Override
+    public Iterable<Map.Entry<String, PostingsEntry>> entries() {
+        if (runs.isEmpty() && segments.isEmpty()) {
+            return blockEntries();
+        }
+        List<Path> runFiles = new ArrayList<>();
+        for (String run : runs) {
+            runFiles.add(Paths.get(run));
+        }
+        List<Iterable<Map.Entry<String, PostingsEntry>>> blocks = new ArrayList<>();
+        for (InvertedIndex segment : segments) {
+            blocks.add(segment.entries());
+        }
+        blocks.add(blockEntries());
+        Iterable<Map.Entry<String, PostingsEntry>> merged = () -> new BlockMerger(runFiles, blocks);
+        if (deletedDocs.isEmpty()) {
+            return merged;
+        }
+        // the runs and segments may hold postings of documents that were deleted after they were written
+        BitSet deleted = deletedDocs;
+        return () -> StreamSupport.stream(merged.spliterator(), false)
+                .<Map.Entry<String, PostingsEntry>>map(entry ->
+                        new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue().purge(deleted)))
+                .filter(entry -> entry.getValue().getDocumentFrequency() > 0)
+                .iterator();
+    }
+
+    /**
+     * @return (term, postings) pairs of the block in memory, in lexicographical order of the terms
+     */
+    private Iterable<Map.Entry<String, PostingsEntry>> blockEntries() {
+        sortDictionary();
+        int[] termIds = sortedTermIds;
+        TermDictionary terms = dictionary;
+        PostingsEntry[] lists = postings;
+        return () -> Arrays.stream(termIds)
+                .<Map.Entry<String, PostingsEntry>>mapToObj(termId ->
+                        new AbstractMap.SimpleImmutableEntry<>(terms.term(termId), lists[termId]))
+                .iterator();
+    }
+
+    /**
+     * Adds a term that is not in the dictionary to the block in memory.
+     *
+     * @param term     term
+     * @param postings posting list of the term
+     */
+    private void addTerm(String term, PostingsEntry postings) {
+        int termId = dictionary.add(term);
+        if (termId == this.postings.length) {
+            this.postings = Arrays.copyOf(this.postings, 2 * termId);
+        }
+        this.postings[termId] = postings;
+        sortedTermIds = null;
+        ranks = null;
+    }
+
+    /**
+     * Deletes a document that has been added completely. Its document information is removed at once, so that the
+     * collection statistics no longer count it, and its postings are purged from the block in memory the next time the
+     * index is read. Postings in runs or segments are skipped by `entries`, so the index written by
+     * `index.Compression` holds no trace of the document. Terms that only occur in deleted documents are dropped.
+     *
+     * @param docId doc id of the document
+     * @return false if there is no document with this doc id
+     */
+    public boolean deleteDocument(int docId) {
+        if (docInfo.remove(docId) == null) {
+            return false;
+        }
+        deletedDocs.set(docId);
+        blockPurged = false;
+        normsComputed = false;
+        return true;
+    }
+
+    /**
+     * Rebuilds the block in memory without the postings of deleted documents.
+     */
+    private void purgeBlock() {
+        TermDictionary oldDictionary = dictionary;
+        PostingsEntry[] oldPostings = postings;
+        dictionary = new TermDictionary();
+        postings = new PostingsEntry[16];
+        for (int termId = 0; termId < oldDictionary.size(); termId++) {
+            PostingsEntry live = oldPostings[termId].purge(deletedDocs);
+            if (live.getDocumentFrequency() > 0) {
+                addTerm(oldDictionary.term(termId), live);
+            }
+        }
+        sortedTermIds = null;
+        ranks = null;
+        blockPurged = true;
+    }
+
+    /**
+     * Writes the block in memory to disk as a sorted run and starts a fresh block.
+     *
+     * @throws IOException
+     */
+    private void flushBlock() throws IOException {
+        Files.createDirectories(Paths.get(runFolder));
+        Path run = Paths.get(runFolder, "spimi-run-" + runs.size() + ".bin");
+        BlockMerger.writeRun(blockEntries(), dictionary.size(), run);
+        runs.add(run.toString());
+        dictionary = new TermDictionary();
+        postings = new PostingsEntry[16];
+        sortedTermIds = null;
+        ranks = null;
+        estimatedBlockSize = 0;
+    }
+
+    /**
+     * Deletes the runs written to disk. The index can not be read afterwards.
+     *
+     * @throws IOException
+     */
+    public void deleteRuns() throws IOException {
+        for (String run : runs) {
+            Files.deleteIfExists(Paths.get(run));
+        }
     }
 
-    public int getDF(String term) {
-        if (!this.invertedIndex.containsKey(term)) {
-            return 0;
+    /**
+     * Merges partial indexes of disjoint sets of documents, such as the ones built by parallel workers, into a single
+     * index. Posting lists of the same term are merged by doc id. If any of the partial indexes has written blocks to
+     * disk, the blocks in memory are written to disk too and the merged index reads all runs; otherwise the merged
+     * index is held in memory. The partial indexes can not be used afterwards.
+     *
+     * @param parts partial indexes
+     * @return the merged index
+     * @throws IOException
+     */
+    public static SPIMI merge(List<SPIMI> parts) throws IOException {
+        SPIMI merged = new SPIMI();
+        boolean onDisk = false;
+        for (SPIMI part : parts) {
+            // norms depend on the whole collection, they are computed for the merged index
+            merged.docInfo.putAll(part.docInfo);
+            merged.deletedDocs.or(part.deletedDocs);
+            onDisk |= part.hasRuns();
+        }
+        if (onDisk) {
+            for (SPIMI part : parts) {
+                if (part.dictionary.size() > 0) {
+                    part.flushBlock();
+                }
+                merged.runs.addAll(part.runs);
+            }
         } else {
-            return this.invertedIndex.get(term).getDocumentFrequency();
+            List<Iterable<Map.Entry<String, PostingsEntry>>> blocks = new ArrayList<>();
+            for (SPIMI part : parts) {
+                blocks.add(part.blockEntries());
+            }
+            BlockMerger merger = new BlockMerger(Collections.emptyList(), blocks);
+            while (merger.hasNext()) {
+                Map.Entry<String, PostingsEntry> entry = merger.next();
+                merged.addTerm(entry.getKey(), entry.getValue());
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Combines the segments of a `SegmentedIndex`, which hold disjoint ranges of doc ids, into a single index. The
+     * segments are read like runs: their posting lists are decoded and merged term by term whenever the index is
+     * iterated with `entries`, so the combined index is never held in memory. The segments must be passed in order of
+     * their doc ids and stay open while the index is read. Deleted documents are left out of the combined index.
+     *
+     * @param segments    indexes of the segments
+     * @param deletedDocs doc ids of the documents of the segments that have been deleted
+     * @return the combined index
+     */
+    static SPIMI fromSegments(List<? extends InvertedIndex> segments, BitSet deletedDocs) {
+        SPIMI merged = new SPIMI();
+        for (InvertedIndex segment : segments) {
+            // norms depend on the whole collection, they are computed for the combined index
+            for (Map.Entry<Integer, DocumentInfo> entry : segment.getDocInfo().entrySet()) {
+                DocumentInfo doc = entry.getValue();
+                if (!deletedDocs.get(entry.getKey())) {
+                    merged.docInfo.put(entry.getKey(), new DocumentInfo(doc.getMaxTf(), doc.getDocLen(), 0, 0));
+                }
+            }
+            merged.segments.add(segment);
+        }
+        merged.deletedDocs.or(deletedDocs);
+        return merged;
+    }
+
+    /**
+     * Creates an index held in memory from its parts, as read from a snapshot by `index.Snapshot`. The dictionary is
+     * already sorted, so its term ids are the positions of the terms.
+     *
+     * @param docInfo  document information of every document, with the document norms
+     * @param terms    terms in lexicographical order
+     * @param postings posting list of every term
+     * @return the index
+     */
+    static SPIMI restore(Map<Integer, DocumentInfo> docInfo, String[] terms, PostingsEntry[] postings) {
+        SPIMI index = new SPIMI();
+        index.docInfo = docInfo;
+        index.postings = new PostingsEntry[Math.max(16, terms.length)];
+        for (int i = 0; i < terms.length; i++) {
+            index.addTerm(terms[i], postings[i]);
+        }
+        int[] identity = new int[terms.length];
+        for (int i = 0; i < identity.length; i++) {
+            identity[i] = i;
         }
+        index.sortedTermIds = identity;
+        index.ranks = identity;
+        index.normsComputed = true;
+        return index;
+    }
+
+    @Override
+    public int getDF(int termId) {
+        return postingsOf(termId).getDocumentFrequency();
     }
 
     public int getDocLen(int docId) {
@@ -50,23 +494,22 @@ public class SPIMI implements Serializable {
         return this.docInfo.get(docId).getMaxTf();
     }
 
-    public double getTFWeighted(String term, int docId) {
-        try {
-            if (!this.getPostingList(term).containsKey(docId)) {
-                return 0.0;
-            } else {
-                return this.getPostingList(term).get(docId).getTfWeighted();
-            }
-        } catch (NoSuchElementException e) {    // term not in dictionary
-            return 0.0;
-        }
+    @Override
+    public int getTf(int termId, int docId) {
+        return postingsOf(termId).getTfInDocument(docId);
     }
 
-    public Map<Integer, TermWeight> getPostingList(String term) {
-        if (!this.invertedIndex.containsKey(term)) {
-            throw new NoSuchElementException("Term not found in dictionary.");
-        }
-        return this.invertedIndex.get(term).getPostingsList();
+    /**
+     * Computes the block maxima of the posting list, the index does not keep them.
+     */
+    @Override
+    public BlockMaxima getBlockMaxima(int termId) {
+        return BlockMaxima.compute(postingsOf(termId), Weighting.of(getDocInfo()), getDocInfo());
+    }
+
+    @Override
+    public PostingsIterator getPostings(int termId) {
+        return postingsOf(termId).iterator();
     }
 
     /**
@@ -75,14 +518,13 @@ public class SPIMI implements Serializable {
      * @param term  term in collection
      * @param docId document id the term is found in
      */
-    private void addToDictionary(String term, Integer docId) {
+    private void addToDictionary(String term, int docId) {
         // update document info with term before proceeding (stopwords are not counted in doc length)
         // if not stopword, add to dictionary
         if (!STOPWORDS.contains(term)) {
-            docInfo.computeIfPresent(docId, (k, v) -> v.update(1));
-            docInfo.putIfAbsent(docId, new DocumentInfo());
-            PostingsEntry p = new PostingsEntry(docId);
-            invertedIndex.put(term, p);
+            currentDocument.update(1);
+            addTerm(term, new PostingsEntry(docId));
+            estimatedBlockSize += BYTES_PER_TERM + 2 * term.length() + BYTES_PER_POSTING;
         }
     }
 
@@ -91,27 +533,46 @@ public class SPIMI implements Serializable {
      * to the end of the posting list. Since doc ids are seen in monotonically increasing order, the posting list is
      * naturally sorted in ascending order. This is one of the key ideas of the index.SPIMI algorithm.
      *
-     * @param pList the existing posting list of the term
-     * @param docId the doc id seen in the (term, doc) pair
-     * @return
+     * @param postingList the existing posting list of the term
+     * @param docId       the doc id seen in the (term, doc) pair
      */
-    private PostingsEntry addToPostingList(PostingsEntry pList, int docId) {
-        PostingsEntry postingList = pList.update(docId);
-        docInfo.computeIfPresent(docId, (k, v) -> v.update(postingList.getDocumentFrequency()));
-        docInfo.putIfAbsent(docId, new DocumentInfo());
-        return postingList;
+    private void addToPostingList(PostingsEntry postingList, int docId) {
+        int documentFrequency = postingList.getDocumentFrequency();
+        postingList.update(docId);
+        if (postingList.getDocumentFrequency() > documentFrequency) {
+            estimatedBlockSize += BYTES_PER_POSTING;
+        }
+        // the document is at the end of the posting list
+        currentDocument.update(postingList.getTf(postingList.getDocumentFrequency() - 1));
     }
 
     /**
-     * Called for every term-doc pair in the collection, adds term-doc to index.
+     * Called for every term-doc pair in the collection, adds term-doc to index. When a new document starts and the
+     * block in memory is over the memory budget, the block is written to disk first, so that the postings of a document
+     * are never split across blocks. Doc ids have to be increasing. Apart from new terms and growing posting lists,
+     * nothing is allocated.
      *
      * @param term  term
      * @param docId doc id
+     * @throws IOException if the block can not be written to disk
      */
-    public void invert(String term, Integer docId) {
-        docInfo.putIfAbsent(docId, new DocumentInfo());
-        invertedIndex.computeIfPresent(term, (k, v) -> addToPostingList(v, docId));
-        if (!invertedIndex.containsKey(term)) {
+    public void invert(String term, int docId) throws IOException {
+        normsComputed = false;
+        if (docId != lastDocId) {
+            if (estimatedBlockSize > memoryBudget) {
+                flushBlock();
+            }
+            lastDocId = docId;
+            currentDocument = docInfo.get(docId);
+            if (currentDocument == null) {
+                currentDocument = new DocumentInfo();
+                docInfo.put(docId, currentDocument);
+            }
+        }
+        int termId = dictionary.get(term);
+        if (termId >= 0) {
+            addToPostingList(postings[termId], docId);
+        } else {
             addToDictionary(term, docId);
         }
     }
@@ -0,0 +1,185 @@
+package index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.BitSet;
+
+/**
+ * An immutable segment of a `SegmentedIndex`: an index of a range of doc ids, written by `index.Compression` to a
+ * folder of its own and read with an `index.IndexReader`. Doc ids without a document in the segment, such as documents
+ * without any terms, still belong to its range.
+ * <p>
+ * Documents deleted after the segment was written are marked in a bitset over the range of the segment, which is
+ * written next to the index files as `deletes.<generation>`. Deleting documents writes a new generation of the bitset
+ * and gives a new `Segment` that shares the reader; the index files are never changed. The postings of deleted
+ * documents stay in the segment until it is merged.
+ */
+class Segment {
+    final String name;
+    final int firstDocId;
+    final int lastDocId;
+    final IndexReader reader;
+
+    /**
+     * Deleted documents, bit `docId - firstDocId` for a doc id. Must not be modified.
+     */
+    final BitSet deletedDocs;
+
+    /**
+     * Generation of the file of `deletedDocs`, 0 if no document of the segment has been deleted.
+     */
+    final int deletesGeneration;
+
+    private final int numberOfDeletedDocs;
+
+    /**
+     * Document frequencies of the terms without the deleted documents, counted on first use.
+     */
+    private int[] liveDocumentFrequencies;
+
+    /**
+     * Opens a segment that has been written to disk.
+     *
+     * @param folder            folder of the segmented index
+     * @param name              name of the segment, the folder it is written to
+     * @param firstDocId        first doc id of the range of the segment
+     * @param lastDocId         last doc id of the range of the segment
+     * @param deletesGeneration generation of the deleted documents, 0 if there are none
+     * @throws IOException
+     */
+    Segment(String folder, String name, int firstDocId, int lastDocId, int deletesGeneration) throws IOException {
+        this(name, firstDocId, lastDocId, new IndexReader(Paths.get(folder, name).toString(),
+                        SegmentedIndex.SEGMENT_FORMAT),
+                deletesGeneration == 0 ? new BitSet() : readDeletes(deletesPath(folder, name, deletesGeneration)),
+                deletesGeneration);
+    }
+
+    private Segment(String name, int firstDocId, int lastDocId, IndexReader reader, BitSet deletedDocs,
+                    int deletesGeneration) {
+        this.name = name;
+        this.firstDocId = firstDocId;
+        this.lastDocId = lastDocId;
+        this.reader = reader;
+        this.deletedDocs = deletedDocs;
+        this.deletesGeneration = deletesGeneration;
+        int deleted = 0;
+        for (int i = deletedDocs.nextSetBit(0); i >= 0; i = deletedDocs.nextSetBit(i + 1)) {
+            if (reader.getDocInfo().containsKey(firstDocId + i)) {
+                deleted++;
+            }
+        }
+        this.numberOfDeletedDocs = deleted;
+    }
+
+    static Path deletesPath(String folder, String name, int deletesGeneration) {
+        return Paths.get(folder, name, "deletes." + deletesGeneration);
+    }
+
+    /**
+     * Reads a bitset written by `writeDeletes`: the number of 64 bit words, followed by the words.
+     */
+    private static BitSet readDeletes(Path p) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(p)))) {
+            long[] words = new long[in.readInt()];
+            for (int i = 0; i < words.length; i++) {
+                words[i] = in.readLong();
+            }
+            return BitSet.valueOf(words);
+        }
+    }
+
+    /**
+     * Marks documents of the segment as deleted and writes the next generation of the bitset.
+     *
+     * @param folder folder of the segmented index
+     * @param docIds doc ids to delete, all in the range of the segment
+     * @return the segment with the documents deleted, or this segment if they were already deleted or not in it
+     * @throws IOException
+     */
+    Segment delete(String folder, int[] docIds) throws IOException {
+        BitSet deletedDocs = (BitSet) this.deletedDocs.clone();
+        for (int docId : docIds) {
+            if (this.reader.getDocInfo().containsKey(docId)) {
+                deletedDocs.set(docId - this.firstDocId);
+            }
+        }
+        if (deletedDocs.equals(this.deletedDocs)) {
+            return this;
+        }
+        int generation = this.deletesGeneration + 1;
+        long[] words = deletedDocs.toLongArray();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(
+                deletesPath(folder, this.name, generation))))) {
+            out.writeInt(words.length);
+            for (long word : words) {
+                out.writeLong(word);
+            }
+        }
+        return new Segment(this.name, this.firstDocId, this.lastDocId, this.reader, deletedDocs, generation);
+    }
+
+    /**
+     * @param docId doc id in the range of the segment
+     * @return true if the document has been deleted
+     */
+    boolean isDeleted(int docId) {
+        return this.deletedDocs.get(docId - this.firstDocId);
+    }
+
+    boolean hasDeletions() {
+        return this.numberOfDeletedDocs > 0;
+    }
+
+    /**
+     * Counts the live documents of every term on the first call, which decodes all postings of the segment once; the
+     * counts are shared by all readers of the segment.
+     *
+     * @param termId term id in the segment
+     * @return document frequency of the term in the segment, without the deleted documents
+     */
+    synchronized int getLiveDocumentFrequency(int termId) {
+        if (!hasDeletions()) {
+            return this.reader.getDF(termId);
+        }
+        if (this.liveDocumentFrequencies == null) {
+            int[] dfs = new int[this.reader.getNumberOfTerms()];
+            for (int t = 0; t < dfs.length; t++) {
+                PostingsIterator postings = this.reader.getPostings(t);
+                for (int doc = postings.nextDoc(); doc != PostingsIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+                    if (!isDeleted(doc)) {
+                        dfs[t]++;
+                    }
+                }
+            }
+            this.liveDocumentFrequencies = dfs;
+        }
+        return this.liveDocumentFrequencies[termId];
+    }
+
+    /**
+     * @return number of live documents in the segment, which is used to size merges
+     */
+    int getNumberOfDocuments() {
+        return this.reader.getDocInfo().size() - this.numberOfDeletedDocs;
+    }
+
+    int getNumberOfDeletedDocuments() {
+        return this.numberOfDeletedDocs;
+    }
+
+    @Override
+    public String toString() {
+        return "index.Segment{" +
+                "name=" + name +
+                ", firstDocId=" + firstDocId +
+                ", lastDocId=" + lastDocId +
+                ", deletedDocs=" + numberOfDeletedDocs +
+                '}';
+    }
+}
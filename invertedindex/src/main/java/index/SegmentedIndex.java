@@ -0,0 +1,523 @@
+package index;
+
+import org.xml.sax.InputSource;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * An index that grows without being rebuilt. The index is a list of immutable segments, each an index of a batch of
+ * documents written by `index.Compression` to a folder of its own. `addDocuments` indexes a batch of new documents
+ * into a new segment, with doc ids that continue after the last document of the index, and a background thread merges
+ * small segments into larger ones as decided by a `TieredMergePolicy`. Queries read all live segments through a
+ * `MultiSegmentReader`.
+ * <p>
+ * `deleteDocuments` marks documents as deleted in the bitset of their segment. New readers skip them at once, and their
+ * postings are purged when the segment is merged or, once enough of its documents are deleted, rewritten.
+ * <p>
+ * The live segments are listed in the `segments` file of the folder, together with the analyzer of the index, the next
+ * doc id and the name of the next segment. Every change writes the segment files first and then replaces the
+ * `segments` file with an atomic rename, so a crash leaves the index as it was after the last change; the folders of
+ * segments that are not listed are deleted when the index is opened.
+ * <p>
+ * Batches are added one at a time. Merges run on a single background thread and only replace segments that were
+ * already listed, so a reader can be taken at any time. The files of a merged segment are deleted once it has been
+ * replaced; readers that still use it keep their memory mappings of the files.
+ */
+public class SegmentedIndex implements Closeable {
+    /**
+     * Version of the `index.Compression` files every segment is written in.
+     */
+    static final String SEGMENT_FORMAT = "compressed.pfor.frontcoding";
+
+    private static final String MANIFEST = "segments";
+
+    private final String folder;
+    private final String analyzer;
+    private final TieredMergePolicy mergePolicy;
+
+    /**
+     * Whether new readers keep the norms of the previous reader for the segments that did not change.
+     */
+    private final boolean reuseNorms;
+
+    /**
+     * Runs the merges, one at a time.
+     */
+    private final ExecutorService merger = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "segment-merger");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Serializes `addDocuments`, so that batches get consecutive doc ids in the order they are added.
+     */
+    private final Object writeLock = new Object();
+
+    /**
+     * Live segments in order of their doc ids. The list is replaced, never modified, on every change.
+     */
+    private List<Segment> segments = Collections.emptyList();
+    private int nextSegment = 0;
+    private int nextDocId = 1;
+
+    /**
+     * Reader of the live segments, replaced on first use after a change, and the previous reader of the next one.
+     */
+    private MultiSegmentReader reader;
+
+    private volatile Exception mergeFailure;
+
+    /**
+     * Opens the segmented index in this folder with the default merge policy, or creates an empty one.
+     *
+     * @param folder   folder of the index, created if it does not exist
+     * @param analyzer name of the `preprocess.Analyzer` the documents are analyzed with: lemma, stem or fast
+     * @throws IOException
+     */
+    public SegmentedIndex(String folder, String analyzer) throws IOException {
+        this(folder, analyzer, new TieredMergePolicy());
+    }
+
+    /**
+     * Opens the segmented index in this folder, or creates an empty one.
+     *
+     * @param folder      folder of the index, created if it does not exist
+     * @param analyzer    name of the `preprocess.Analyzer` the documents are analyzed with: lemma, stem or fast
+     * @param mergePolicy decides which segments are merged
+     * @throws IOException
+     * @throws IllegalArgumentException if the index was built with another analyzer
+     */
+    public SegmentedIndex(String folder, String analyzer, TieredMergePolicy mergePolicy) throws IOException {
+        this(folder, analyzer, mergePolicy, false);
+    }
+
+    /**
+     * Opens the segmented index in this folder, or creates an empty one.
+     *
+     * @param folder      folder of the index, created if it does not exist
+     * @param analyzer    name of the `preprocess.Analyzer` the documents are analyzed with: lemma, stem or fast
+     * @param mergePolicy decides which segments are merged
+     * @param reuseNorms  whether a new reader keeps the norms of the segments the previous reader read while the
+     *                    statistics have not drifted, see `MultiSegmentReader`; scores are then approximate, otherwise
+     *                    every reader computes all norms and scores are exact
+     * @throws IOException
+     * @throws IllegalArgumentException if the index was built with another analyzer
+     */
+    public SegmentedIndex(String folder, String analyzer, TieredMergePolicy mergePolicy, boolean reuseNorms)
+            throws IOException {
+        this.folder = folder;
+        this.analyzer = analyzer;
+        this.mergePolicy = mergePolicy;
+        this.reuseNorms = reuseNorms;
+        Files.createDirectories(Paths.get(folder));
+        Path manifest = Paths.get(folder, MANIFEST);
+        if (Files.exists(manifest)) {
+            readManifest(manifest);
+        }
+        deleteUnlistedSegments();
+        maybeMerge();
+    }
+
+    /**
+     * Reads the `segments` file. The first line holds the analyzer, the number of the next segment and the next doc
+     * id, every following line the name, first doc id, last doc id and generation of the deleted documents of a segment.
+     */
+    private void readManifest(Path manifest) throws IOException {
+        List<String> lines = Files.readAllLines(manifest, StandardCharsets.UTF_8);
+        String[] header = lines.get(0).split(" ");
+        if (!header[0].equals(this.analyzer)) {
+            throw new IllegalArgumentException("Index in " + this.folder + " is analyzed with " + header[0] +
+                    ", not " + this.analyzer);
+        }
+        this.nextSegment = Integer.parseInt(header[1]);
+        this.nextDocId = Integer.parseInt(header[2]);
+        List<Segment> segments = new ArrayList<>();
+        for (String line : lines.subList(1, lines.size())) {
+            String[] fields = line.split(" ");
+            int deletesGeneration = fields.length > 3 ? Integer.parseInt(fields[3]) : 0;
+            segments.add(new Segment(this.folder, fields[0], Integer.parseInt(fields[1]), Integer.parseInt(fields[2]),
+                    deletesGeneration));
+        }
+        this.segments = Collections.unmodifiableList(segments);
+    }
+
+    /**
+     * Replaces the `segments` file with the current state of the index. Must hold the lock of the index.
+     */
+    private void writeManifest() throws IOException {
+        Path temporary = Paths.get(this.folder, MANIFEST + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+            out.write(this.analyzer + " " + this.nextSegment + " " + this.nextDocId);
+            out.newLine();
+            for (Segment segment : this.segments) {
+                out.write(segment.name + " " + segment.firstDocId + " " + segment.lastDocId + " " +
+                        segment.deletesGeneration);
+                out.newLine();
+            }
+        }
+        Files.move(temporary, Paths.get(this.folder, MANIFEST), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Deletes the folders of segments that were being written or merged when the index was last closed.
+     */
+    private void deleteUnlistedSegments() throws IOException {
+        Set<String> live = new HashSet<>();
+        for (Segment segment : this.segments) {
+            live.add(segment.name);
+        }
+        List<String> unlisted = new ArrayList<>();
+        try (Stream<Path> files = Files.list(Paths.get(this.folder))) {
+            files.filter(Files::isDirectory)
+                    .map(p -> p.getFileName().toString())
+                    .filter(name -> name.startsWith("_") && !live.contains(name))
+                    .forEach(unlisted::add);
+        }
+        for (String name : unlisted) {
+            deleteSegment(name);
+        }
+    }
+
+    /**
+     * Deletes the files of a segment. A file that can not be deleted, for instance because it is still mapped on a
+     * platform that does not allow that, is left to be deleted when the index is opened again.
+     */
+    private void deleteSegment(String name) {
+        File[] files = Paths.get(this.folder, name).toFile().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        Paths.get(this.folder, name).toFile().delete();
+    }
+
+    private synchronized String newSegmentName() {
+        return "_" + this.nextSegment++;
+    }
+
+    private void writeSegment(SPIMI spimi, String name) throws IOException {
+        Compression compression = new Compression(spimi, Paths.get(this.folder, name).toString());
+        compression.createCompressedIndex(8, "pfor", true);
+    }
+
+    /**
+     * Indexes the documents at a path into a new segment, see `addDocuments(DocumentSource)`.
+     *
+     * @param path folder or container file, see `DocumentSource.open`
+     * @return number of documents added
+     * @throws IOException
+     */
+    public int addDocuments(String path) throws IOException {
+        try (DocumentSource source = DocumentSource.open(path)) {
+            return addDocuments(source);
+        }
+    }
+
+    /**
+     * Indexes a batch of documents in memory and writes them to a new segment. The documents get the doc ids after the
+     * last document of the index, in the order of the source. Once the segment is listed, it is read by new readers,
+     * and a merge is scheduled if the merge policy asks for one.
+     *
+     * @param source documents to add
+     * @return number of documents added
+     * @throws IOException
+     */
+    public int addDocuments(DocumentSource source) throws IOException {
+        synchronized (this.writeLock) {
+            checkMergeFailure();
+            int firstDocId;
+            synchronized (this) {
+                firstDocId = this.nextDocId;
+            }
+            CountingSource counted = new CountingSource(source);
+            SPIMI spimi = Indexer.buildIndex(counted, this.analyzer, new SPIMI(), firstDocId);
+            if (counted.count == 0) {
+                return 0;
+            }
+            int lastDocId = firstDocId + counted.count - 1;
+            Segment segment = null;
+            if (spimi.getNumberOfTerms() > 0) {
+                String name = newSegmentName();
+                writeSegment(spimi, name);
+                segment = new Segment(this.folder, name, firstDocId, lastDocId, 0);
+            }
+            synchronized (this) {
+                if (segment != null) {
+                    List<Segment> segments = new ArrayList<>(this.segments);
+                    segments.add(segment);
+                    this.segments = Collections.unmodifiableList(segments);
+                }
+                this.nextDocId = lastDocId + 1;
+                writeManifest();
+            }
+            maybeMerge();
+            return counted.count;
+        }
+    }
+
+    /**
+     * Deletes documents. The deletions are written as a new generation of the deleted documents of every segment that
+     * holds one of the documents, and are seen by the readers taken afterwards.
+     *
+     * @param docIds doc ids of the documents to delete
+     * @return number of documents deleted, without the ones that were already deleted or do not exist
+     * @throws IOException
+     */
+    public synchronized int deleteDocuments(int... docIds) throws IOException {
+        int[] sorted = docIds.clone();
+        Arrays.sort(sorted);
+        List<Segment> segments = new ArrayList<>(this.segments);
+        List<Segment> replaced = new ArrayList<>();
+        int deleted = 0;
+        for (int s = 0; s < segments.size(); s++) {
+            Segment segment = segments.get(s);
+            int from = lowerBound(sorted, segment.firstDocId);
+            int to = lowerBound(sorted, segment.lastDocId + 1);
+            if (from == to) {
+                continue;
+            }
+            Segment updated = segment.delete(this.folder, Arrays.copyOfRange(sorted, from, to));
+            if (updated != segment) {
+                deleted += updated.getNumberOfDeletedDocuments() - segment.getNumberOfDeletedDocuments();
+                segments.set(s, updated);
+                replaced.add(segment);
+            }
+        }
+        if (replaced.isEmpty()) {
+            return 0;
+        }
+        this.segments = Collections.unmodifiableList(segments);
+        writeManifest();
+        for (Segment segment : replaced) {
+            if (segment.deletesGeneration > 0) {
+                Files.deleteIfExists(Segment.deletesPath(this.folder, segment.name, segment.deletesGeneration));
+            }
+        }
+        maybeMerge();
+        return deleted;
+    }
+
+    /**
+     * @return position of the first value that is not smaller than `key`
+     */
+    private static int lowerBound(int[] sorted, int key) {
+        int i = Arrays.binarySearch(sorted, key);
+        if (i < 0) {
+            return -1 - i;
+        }
+        while (i > 0 && sorted[i - 1] == key) {
+            i--;
+        }
+        return i;
+    }
+
+    /**
+     * Returns a reader of the live segments. The first call after a change creates a new reader, which decodes the
+     * postings of all segments to compute the norms and fills a map of the document information of all live documents.
+     * If the index reuses norms, it only decodes the segments added or merged since the previous reader, and those
+     * with new deletions to count their live document frequencies, until the statistics drift by more than
+     * `MultiSegmentReader.MAX_STATISTICS_DRIFT`.
+     * <p>
+     * The reader is created without holding the lock of the index, so changes and merges go on meanwhile; it is only
+     * kept for the next call if the segments did not change in the meantime.
+     *
+     * @return a reader of the live segments, which does not see later changes
+     */
+    public MultiSegmentReader getReader() {
+        List<Segment> segments;
+        MultiSegmentReader previous;
+        synchronized (this) {
+            if (this.reader != null && this.reader.reads(this.segments)) {
+                return this.reader;
+            }
+            segments = this.segments;
+            previous = this.reader;
+        }
+        MultiSegmentReader reader = new MultiSegmentReader(segments, this.reuseNorms ? previous : null);
+        synchronized (this) {
+            if (this.segments == segments) {
+                this.reader = reader;
+            }
+        }
+        return reader;
+    }
+
+    /**
+     * @return number of live segments
+     */
+    public synchronized int getNumberOfSegments() {
+        return this.segments.size();
+    }
+
+    /**
+     * Schedules merges on the background thread. A merge that is not needed any more finds nothing to do.
+     */
+    private void maybeMerge() {
+        this.merger.execute(this::mergeSegments);
+    }
+
+    /**
+     * Merges segments until the merge policy finds nothing to merge. A failure is reported by the next call to
+     * `addDocuments`, `waitForMerges` or `close`.
+     */
+    private void mergeSegments() {
+        try {
+            while (this.mergeFailure == null) {
+                List<Segment> merge;
+                synchronized (this) {
+                    merge = this.mergePolicy.findMerge(this.segments);
+                }
+                if (merge.isEmpty()) {
+                    return;
+                }
+                List<IndexReader> readers = new ArrayList<>();
+                BitSet deletedDocs = new BitSet();
+                for (Segment segment : merge) {
+                    readers.add(segment.reader);
+                    orShifted(deletedDocs, segment.deletedDocs, segment.firstDocId);
+                }
+                SPIMI combined = SPIMI.fromSegments(readers, deletedDocs);
+                Segment merged = null;
+                if (!combined.getDocInfo().isEmpty()) {
+                    String name = newSegmentName();
+                    writeSegment(combined, name);
+                    merged = new Segment(this.folder, name, merge.get(0).firstDocId,
+                            merge.get(merge.size() - 1).lastDocId, 0);
+                }
+                synchronized (this) {
+                    // new segments are only appended, the merged segments are still adjacent, but documents may have
+                    // been deleted from them while they were merged
+                    List<Segment> segments = new ArrayList<>(this.segments);
+                    int from = indexOf(segments, merge.get(0).name);
+                    BitSet deletedSince = new BitSet();
+                    for (int i = 0; i < merge.size(); i++) {
+                        Segment current = segments.get(from + i);
+                        orShifted(deletedSince, current.deletedDocs, current.firstDocId);
+                    }
+                    deletedSince.andNot(deletedDocs);
+                    if (merged != null && !deletedSince.isEmpty()) {
+                        merged = merged.delete(this.folder, deletedSince.stream().toArray());
+                    }
+                    segments.subList(from, from + merge.size()).clear();
+                    if (merged != null) {
+                        segments.add(from, merged);
+                    }
+                    this.segments = Collections.unmodifiableList(segments);
+                    writeManifest();
+                }
+                for (Segment segment : merge) {
+                    deleteSegment(segment.name);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            this.mergeFailure = e;
+        }
+    }
+
+    /**
+     * Adds the bits of a bitset over the range of a segment to a bitset over doc ids.
+     */
+    private static void orShifted(BitSet docIds, BitSet segmentBits, int firstDocId) {
+        for (int i = segmentBits.nextSetBit(0); i >= 0; i = segmentBits.nextSetBit(i + 1)) {
+            docIds.set(firstDocId + i);
+        }
+    }
+
+    private static int indexOf(List<Segment> segments, String name) {
+        for (int i = 0; i < segments.size(); i++) {
+            if (segments.get(i).name.equals(name)) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("Segment " + name + " is not live");
+    }
+
+    private void checkMergeFailure() throws IOException {
+        if (this.mergeFailure != null) {
+            throw new IOException("Could not merge segments", this.mergeFailure);
+        }
+    }
+
+    /**
+     * Waits until the merges scheduled so far are done.
+     *
+     * @throws IOException if a merge failed
+     */
+    public void waitForMerges() throws IOException {
+        try {
+            this.merger.submit(() -> { }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for merges", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Could not merge segments", e.getCause());
+        }
+        checkMergeFailure();
+    }
+
+    /**
+     * Waits for the running merges and stops the merge thread. Readers stay usable.
+     *
+     * @throws IOException if a merge failed
+     */
+    @Override
+    public void close() throws IOException {
+        this.merger.shutdown();
+        try {
+            this.merger.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for merges", e);
+        }
+        checkMergeFailure();
+    }
+
+    /**
+     * Counts the documents read from a source.
+     */
+    private static class CountingSource implements DocumentSource {
+        private final DocumentSource source;
+        private int count = 0;
+
+        CountingSource(DocumentSource source) {
+            this.source = source;
+        }
+
+        @Override
+        public InputSource next() throws IOException {
+            InputSource doc = this.source.next();
+            if (doc != null) {
+                this.count++;
+            }
+            return doc;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.source.close();
+        }
+    }
+}
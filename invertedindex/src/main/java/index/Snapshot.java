@@ -0,0 +1,233 @@
+package index;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Saves an index held in memory by `index.SPIMI` to a single file and loads it back, without analyzing the collection
+ * again. The file is columnar: every field of the documents and of the posting lists is stored as one array of
+ * primitives, so loading it is a few bulk reads from a memory mapped file into `int` and `double` arrays, with a single
+ * object per term and per document, and takes about as long as reading the file.
+ * <p>
+ * Format, big endian:
+ * <pre>
+ * magic "SPMI", version, number of documents, number of terms, number of postings, length of the term bytes
+ * doc ids, max tfs, doc lengths                    (int each, per document, in order of doc id)
+ * w1 norms, w2 norms                               (double each, per document)
+ * term offsets                                     (int, per term and one past the last term)
+ * term bytes                                       (UTF-8, in lexicographical order of the terms)
+ * document frequencies                             (int, per term)
+ * doc ids, tfs                                     (int each, per posting, in order of term and doc id)
+ * CRC32 of everything before it                    (long)
+ * </pre>
+ * A file with another magic or version, or whose checksum does not match, is rejected instead of being read wrongly. The
+ * file is mapped at once, so it can not be larger than 2 GB.
+ */
+public class Snapshot {
+    private static final int MAGIC = 0x53504D49;
+
+    /**
+     * Version of the format, incremented whenever the format changes.
+     */
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 6 * 4;
+
+    private Snapshot() {
+    }
+
+    /**
+     * Writes an index to a snapshot. The file is written next to its final path and renamed when it is complete. An
+     * index whose blocks have been written to disk is merged while it is read, and its postings are held in memory
+     * until the snapshot is written, like those of any snapshot that is loaded.
+     *
+     * @param index index to write
+     * @param path  file to write
+     * @throws IOException
+     */
+    public static void write(SPIMI index, String path) throws IOException {
+        // documents in order of doc id, with the norms computed
+        TreeMap<Integer, DocumentInfo> docInfo = new TreeMap<>(index.getDocInfo());
+        List<byte[]> terms = new ArrayList<>();
+        List<PostingsEntry> postings = new ArrayList<>();
+        int termBytes = 0;
+        int numberOfPostings = 0;
+        for (Map.Entry<String, PostingsEntry> entry : index.entries()) {
+            byte[] term = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            terms.add(term);
+            postings.add(entry.getValue());
+            termBytes += term.length;
+            numberOfPostings += entry.getValue().getDocumentFrequency();
+        }
+        int numberOfTerms = terms.size();
+
+        Path target = Paths.get(path);
+        Path temporary = Paths.get(path + ".tmp");
+        CRC32 checksum = new CRC32();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(
+                Files.newOutputStream(temporary), checksum), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(docInfo.size());
+            out.writeInt(numberOfTerms);
+            out.writeInt(numberOfPostings);
+            out.writeInt(termBytes);
+            for (int docId : docInfo.keySet()) {
+                out.writeInt(docId);
+            }
+            for (DocumentInfo doc : docInfo.values()) {
+                out.writeInt(doc.getMaxTf());
+            }
+            for (DocumentInfo doc : docInfo.values()) {
+                out.writeInt(doc.getDocLen());
+            }
+            for (DocumentInfo doc : docInfo.values()) {
+                out.writeDouble(doc.getNorm("w1"));
+            }
+            for (DocumentInfo doc : docInfo.values()) {
+                out.writeDouble(doc.getNorm("w2"));
+            }
+            int offset = 0;
+            for (byte[] term : terms) {
+                out.writeInt(offset);
+                offset += term.length;
+            }
+            out.writeInt(offset);
+            for (byte[] term : terms) {
+                out.write(term);
+            }
+            for (PostingsEntry p : postings) {
+                out.writeInt(p.getDocumentFrequency());
+            }
+            for (PostingsEntry p : postings) {
+                for (int i = 0; i < p.getDocumentFrequency(); i++) {
+                    out.writeInt(p.getDocId(i));
+                }
+            }
+            for (PostingsEntry p : postings) {
+                for (int i = 0; i < p.getDocumentFrequency(); i++) {
+                    out.writeInt(p.getTf(i));
+                }
+            }
+            // the checksum is not part of itself
+            out.flush();
+            out.writeLong(checksum.getValue());
+        }
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads an index from a snapshot.
+     *
+     * @param path file written by `write`
+     * @return the index, held in memory
+     * @throws IOException if the file can not be read, is not a snapshot of this version or is corrupt
+     */
+    public static SPIMI read(String path) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot " + path + " is larger than 2 GB");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.capacity() < HEADER_SIZE + 8 || buffer.getInt(0) != MAGIC) {
+            throw new IOException(path + " is not an index snapshot");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Snapshot " + path + " has version " + buffer.getInt(4) + ", expected " + VERSION);
+        }
+        int end = buffer.capacity() - 8;
+        CRC32 checksum = new CRC32();
+        ByteBuffer content = buffer.duplicate();
+        ((Buffer) content).limit(end);
+        checksum.update(content);
+        if (checksum.getValue() != buffer.getLong(end)) {
+            throw new IOException("Snapshot " + path + " is corrupt, its checksum does not match");
+        }
+
+        int numberOfDocuments = buffer.getInt(8);
+        int numberOfTerms = buffer.getInt(12);
+        int numberOfPostings = buffer.getInt(16);
+        int termBytes = buffer.getInt(20);
+        skip(buffer, HEADER_SIZE);
+
+        int[] docIds = readInts(buffer, numberOfDocuments);
+        int[] maxTfs = readInts(buffer, numberOfDocuments);
+        int[] docLens = readInts(buffer, numberOfDocuments);
+        double[] normsW1 = readDoubles(buffer, numberOfDocuments);
+        double[] normsW2 = readDoubles(buffer, numberOfDocuments);
+        Map<Integer, DocumentInfo> docInfo = new HashMap<>(2 * numberOfDocuments);
+        for (int i = 0; i < numberOfDocuments; i++) {
+            docInfo.put(docIds[i], new DocumentInfo(maxTfs[i], docLens[i], normsW1[i], normsW2[i]));
+        }
+
+        int[] termOffsets = readInts(buffer, numberOfTerms + 1);
+        byte[] bytes = new byte[termBytes];
+        buffer.get(bytes);
+        String[] terms = new String[numberOfTerms];
+        for (int i = 0; i < numberOfTerms; i++) {
+            terms[i] = new String(bytes, termOffsets[i], termOffsets[i + 1] - termOffsets[i], StandardCharsets.UTF_8);
+        }
+
+        int[] documentFrequencies = readInts(buffer, numberOfTerms);
+        PostingsEntry[] postings = new PostingsEntry[numberOfTerms];
+        // the doc ids and the tfs of the postings are two views of the file, read one posting list at a time
+        IntBuffer postingDocIds = buffer.asIntBuffer();
+        skip(buffer, 4 * numberOfPostings);
+        IntBuffer postingTfs = buffer.asIntBuffer();
+        for (int i = 0; i < numberOfTerms; i++) {
+            int[] listDocIds = new int[documentFrequencies[i]];
+            int[] listTfs = new int[documentFrequencies[i]];
+            postingDocIds.get(listDocIds);
+            postingTfs.get(listTfs);
+            postings[i] = new PostingsEntry(listDocIds, listTfs, listDocIds.length);
+        }
+        return SPIMI.restore(docInfo, terms, postings);
+    }
+
+    /**
+     * Moves the position of the buffer. The cast keeps the code running on Java 8, where `ByteBuffer` does not
+     * override `position`.
+     */
+    private static void skip(ByteBuffer buffer, int bytes) {
+        ((Buffer) buffer).position(buffer.position() + bytes);
+    }
+
+    /**
+     * Reads an array of ints at the position of the buffer and moves the position past it.
+     */
+    private static int[] readInts(ByteBuffer buffer, int length) {
+        int[] values = new int[length];
+        buffer.asIntBuffer().get(values);
+        skip(buffer, 4 * length);
+        return values;
+    }
+
+    private static double[] readDoubles(ByteBuffer buffer, int length) {
+        double[] values = new double[length];
+        DoubleBuffer doubles = buffer.asDoubleBuffer();
+        doubles.get(values);
+        skip(buffer, 8 * length);
+        return values;
+    }
+}
@@ -0,0 +1,116 @@
+package index;
+
+import java.util.Arrays;
+
+/**
+ * Maps the terms of a block of the index to dense integer term ids, 0 for the first term added, 1 for the second and
+ * so on. The term ids are kept in an open addressing hash table with linear probing, so a lookup hashes the term once,
+ * which `String` caches, and compares it with the few terms in its probe sequence. Nothing is boxed, and the posting
+ * lists can be kept in an array indexed by term id.
+ * <p>
+ * The order of the term ids is the order the terms were seen in; `sortedTermIds` gives the lexicographical order,
+ * which is needed once the block is written out.
+ */
+class TermDictionary {
+    private static final int EMPTY = -1;
+
+    /**
+     * Terms by term id.
+     */
+    private String[] terms = new String[16];
+
+    /**
+     * Hash table of term ids, at most half full. The length is a power of two.
+     */
+    private int[] table = newTable(32);
+
+    private int size = 0;
+
+    private static int[] newTable(int capacity) {
+        int[] table = new int[capacity];
+        Arrays.fill(table, EMPTY);
+        return table;
+    }
+
+    /**
+     * Spreads the high bits of the hash code over the low bits, which select the slot.
+     */
+    private static int slot(String term, int mask) {
+        int h = term.hashCode();
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * @param term term to look up
+     * @return term id of the term, or -1 if the term is not in the dictionary
+     */
+    int get(String term) {
+        int mask = this.table.length - 1;
+        for (int i = slot(term, mask); ; i = (i + 1) & mask) {
+            int termId = this.table[i];
+            if (termId == EMPTY || this.terms[termId].equals(term)) {
+                return termId;
+            }
+        }
+    }
+
+    /**
+     * Adds a term that is not in the dictionary yet.
+     *
+     * @param term term to add
+     * @return term id of the term, the number of terms added before it
+     */
+    int add(String term) {
+        if (this.size == this.terms.length) {
+            this.terms = Arrays.copyOf(this.terms, 2 * this.size);
+        }
+        if (2 * (this.size + 1) > this.table.length) {
+            rehash(2 * this.table.length);
+        }
+        int termId = this.size++;
+        this.terms[termId] = term;
+        insert(term, termId);
+        return termId;
+    }
+
+    private void insert(String term, int termId) {
+        int mask = this.table.length - 1;
+        int i = slot(term, mask);
+        while (this.table[i] != EMPTY) {
+            i = (i + 1) & mask;
+        }
+        this.table[i] = termId;
+    }
+
+    private void rehash(int capacity) {
+        this.table = newTable(capacity);
+        for (int termId = 0; termId < this.size; termId++) {
+            insert(this.terms[termId], termId);
+        }
+    }
+
+    /**
+     * @param termId term id
+     * @return the term with this term id
+     */
+    String term(int termId) {
+        return this.terms[termId];
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * @return the term ids ordered by the lexicographical order of their terms
+     */
+    int[] sortedTermIds() {
+        String[] sorted = Arrays.copyOf(this.terms, this.size);
+        Arrays.sort(sorted);
+        int[] termIds = new int[this.size];
+        for (int i = 0; i < this.size; i++) {
+            termIds[i] = get(sorted[i]);
+        }
+        return termIds;
+    }
+}
@@ -0,0 +1,127 @@
+package index;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Decides which segments of a `SegmentedIndex` are merged. Segments are grouped in tiers by their number of documents:
+ * tier 0 holds the segments of at most `floorDocuments` documents, and every following tier holds segments up to
+ * `segmentsPerTier` times larger. Once `segmentsPerTier` adjacent segments are in the same tier, they are merged into
+ * a single segment of the next tier, the lowest tier first. Every document is therefore rewritten about once per tier,
+ * a logarithmic number of times, and the number of segments a query reads stays logarithmic in the collection size.
+ * <p>
+ * Only adjacent segments are merged, so that every segment keeps a range of doc ids of its own, which the posting lists
+ * of a `MultiSegmentReader` rely on.
+ * <p>
+ * The postings of deleted documents are purged when their segment is merged. When no tier needs a merge, a segment
+ * whose fraction of deleted documents is over `maxDeletedFraction` is rewritten on its own, so that documents that were
+ * taken down do not linger in a large segment that would not be merged for a long time.
+ */
+public class TieredMergePolicy {
+    private final int segmentsPerTier;
+    private final int floorDocuments;
+    private final int maxMergedDocuments;
+    private final double maxDeletedFraction;
+
+    /**
+     * Merges 10 segments at a time, with 1000 documents in the smallest tier and no limit on the size of a merge, and
+     * rewrites segments with more than a fifth of their documents deleted.
+     */
+    public TieredMergePolicy() {
+        this(10, 1000, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Rewrites segments with more than a fifth of their documents deleted.
+     *
+     * @param segmentsPerTier    number of segments of a tier that are merged, at least 2
+     * @param floorDocuments     segments of at most this number of documents are in the smallest tier
+     * @param maxMergedDocuments segments are not merged into a segment of more documents than this, which bounds the
+     *                           time of a single merge
+     */
+    public TieredMergePolicy(int segmentsPerTier, int floorDocuments, int maxMergedDocuments) {
+        this(segmentsPerTier, floorDocuments, maxMergedDocuments, 0.2);
+    }
+
+    /**
+     * @param segmentsPerTier    number of segments of a tier that are merged, at least 2
+     * @param floorDocuments     segments of at most this number of documents are in the smallest tier
+     * @param maxMergedDocuments segments are not merged into a segment of more documents than this, which bounds the
+     *                           time of a single merge
+     * @param maxDeletedFraction segments with a larger fraction of deleted documents are rewritten to purge them
+     */
+    public TieredMergePolicy(int segmentsPerTier, int floorDocuments, int maxMergedDocuments,
+                             double maxDeletedFraction) {
+        if (segmentsPerTier < 2) {
+            throw new IllegalArgumentException("At least 2 segments per tier are needed to merge.");
+        }
+        this.segmentsPerTier = segmentsPerTier;
+        this.floorDocuments = Math.max(1, floorDocuments);
+        this.maxMergedDocuments = maxMergedDocuments;
+        this.maxDeletedFraction = maxDeletedFraction;
+    }
+
+    /**
+     * @param numberOfDocuments number of documents of a segment
+     * @return tier of the segment
+     */
+    int tier(int numberOfDocuments) {
+        int tier = 0;
+        long bound = this.floorDocuments;
+        while (numberOfDocuments > bound) {
+            bound *= this.segmentsPerTier;
+            tier++;
+        }
+        return tier;
+    }
+
+    /**
+     * Finds the adjacent segments to merge next.
+     *
+     * @param segments segments of the index, in order of their doc ids
+     * @return segments to merge, in order of their doc ids, a single segment to purge its deleted documents, or an
+     * empty list if no merge is needed
+     */
+    List<Segment> findMerge(List<Segment> segments) {
+        int best = -1;
+        int bestTier = Integer.MAX_VALUE;
+        for (int i = 0; i + this.segmentsPerTier <= segments.size(); i++) {
+            int tier = tier(segments.get(i).getNumberOfDocuments());
+            if (tier >= bestTier) {
+                continue;
+            }
+            long documents = 0;
+            boolean sameTier = true;
+            for (int j = i; j < i + this.segmentsPerTier && sameTier; j++) {
+                documents += segments.get(j).getNumberOfDocuments();
+                sameTier = tier(segments.get(j).getNumberOfDocuments()) == tier;
+            }
+            if (sameTier && documents <= this.maxMergedDocuments) {
+                best = i;
+                bestTier = tier;
+            }
+        }
+        if (best < 0) {
+            return findSegmentToPurge(segments);
+        }
+        return new ArrayList<>(segments.subList(best, best + this.segmentsPerTier));
+    }
+
+    /**
+     * @return the segment with the largest fraction of deleted documents, if it is over `maxDeletedFraction`
+     */
+    private List<Segment> findSegmentToPurge(List<Segment> segments) {
+        Segment worst = null;
+        double worstFraction = this.maxDeletedFraction;
+        for (Segment segment : segments) {
+            int deleted = segment.getNumberOfDeletedDocuments();
+            double fraction = (double) deleted / (deleted + segment.getNumberOfDocuments());
+            if (deleted > 0 && fraction > worstFraction) {
+                worst = segment;
+                worstFraction = fraction;
+            }
+        }
+        return worst == null ? Collections.emptyList() : Collections.singletonList(worst);
+    }
+}
@@ -0,0 +1,100 @@
+package index;
+
+import java.util.Map;
+
+/**
+ * Term weighting functions used for retrieval, "w1" (a variant of max-tf weighting) and "w2" (a variant of Okapi). Both
+ * depend on collection statistics, the number of documents and the average document length, which are fixed when
+ * the object is created. The same weights are used at index time to compute document norms and at query time.
+ */
+public class Weighting {
+    private final int collectionSize;
+    private final double avgDocLen;
+
+    public Weighting(int collectionSize, double avgDocLen) {
+        this.collectionSize = collectionSize;
+        this.avgDocLen = avgDocLen;
+    }
+
+    /**
+     * Computes the collection statistics from the document information of an index.
+     *
+     * @param docInfo document information of every document in the collection
+     * @return weighting functions for the collection
+     */
+    public static Weighting of(Map<Integer, DocumentInfo> docInfo) {
+        int collectionSize = docInfo.size();
+        double avgDocLen = 0;
+        for (DocumentInfo d : docInfo.values()) {
+            avgDocLen += d.getDocLen();
+        }
+        avgDocLen /= collectionSize;
+        return new Weighting(collectionSize, avgDocLen);
+    }
+
+    public int getCollectionSize() {
+        return collectionSize;
+    }
+
+    public double getAvgDocLen() {
+        return avgDocLen;
+    }
+
+    /**
+     * @param df document frequency
+     * @return the inverse document frequency factor of both weighting functions
+     */
+    public double idf(int df) {
+        return Math.log((double) (this.collectionSize / df)) / Math.log(this.collectionSize);
+    }
+
+    /**
+     * A variant of the well known maxTf term weighting function.
+     *
+     * @param tf    term frequency of the term
+     * @param maxTf maximum term frequency in document
+     * @param df    document frequency
+     * @return weight of the term
+     */
+    public double maxTfWeighting(int tf, int maxTf, int df) {
+        if (tf == 0 || maxTf == 0 || df == 0) {
+            return 0.0;
+        }
+        return (0.4 + 0.6 * Math.log(tf + 0.5) / Math.log(maxTf + 1.0)) *
+                Math.log((double) (this.collectionSize / df)) / Math.log(this.collectionSize);
+    }
+
+    /**
+     * A variant of the Okapi term weighting function.
+     *
+     * @param tf     term frequency
+     * @param docLen maximum term frequency if document
+     * @param df     document frequency
+     * @return weight of the term
+     */
+    public double okapiTermWeighting(int tf, int docLen, int df) {
+        if (tf == 0 || docLen == 0 || df == 0) {
+            return 0.0;
+        }
+        return (0.4 + 0.6 * (tf / (tf + 0.5 + 1.5 *
+                (docLen / this.avgDocLen))) * Math.log(this.collectionSize / df) /
+                Math.log(this.collectionSize));
+    }
+
+    /**
+     * Weight of a term in a document using the specified weighting function.
+     *
+     * @param weightFunction either w1 or w2
+     * @param tf             term frequency of the term in the document
+     * @param df             document frequency of the term
+     * @param doc            document information of the document
+     * @return weight of the term in the document
+     */
+    public double weight(String weightFunction, int tf, int df, DocumentInfo doc) {
+        if (weightFunction.equalsIgnoreCase("w1")) {
+            return maxTfWeighting(tf, doc.getMaxTf(), df);
+        } else {
+            return okapiTermWeighting(tf, doc.getDocLen(), df);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package preprocess;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * A bounded cache of the analysis of a token, such as its stem or the tokens `preprocess.TokenFilter` splits it into,
+ * that can be shared by the indexing workers and the query threads. The words of a collection follow Zipf's law, so a
+ * cache of a few thousand words answers most lookups, and a hit costs a single lookup in a `ConcurrentHashMap`.
+ * <p>
+ * Once the cache goes over its maximum size, it evicts entries with the CLOCK algorithm, like `index.BlockCache`: a hit
+ * only marks its entry as referenced, and the eviction hand gives referenced entries a second chance and evicts the
+ * first entry that has not been hit since the hand last passed it. The frequent words, which are hit between two passes
+ * of the hand, therefore stay cached, while hits remain a lookup without a lock; only adding an entry takes the lock of
+ * the clock.
+ *
+ * @param <V> result of the analysis, which must not be modified once it is cached
+ */
+public class AnalysisCache<V> {
+    private final ConcurrentHashMap<String, Entry<V>> cache = new ConcurrentHashMap<>();
+
+    /**
+     * Tokens of the cached entries in the order of the clock, the hand is at the head.
+     */
+    private final ArrayDeque<String> clock = new ArrayDeque<>();
+
+    private final int maximumSize;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param maximumSize number of entries after which entries are evicted
+     */
+    public AnalysisCache(int maximumSize) {
+        this.maximumSize = maximumSize;
+    }
+
+    private static class Entry<V> {
+        final V value;
+
+        /**
+         * Whether the entry has been hit since the hand of the clock last passed it.
+         */
+        volatile boolean referenced = false;
+
+        Entry(V value) {
+            this.value = value;
+        }
+    }
+
+    /**
+     * Looks up the analysis of a token, and analyzes it on a miss. Two threads that miss the same token at the same time
+     * may both analyze it, so the analysis must not have side effects.
+     *
+     * @param token    token to look up
+     * @param analyzer analyzes the token on a miss, must not return null
+     * @return analysis of the token
+     */
+    public V get(String token, Function<String, ? extends V> analyzer) {
+        Entry<V> cached = this.cache.get(token);
+        if (cached != null) {
+            if (!cached.referenced) {
+                cached.referenced = true;
+            }
+            this.hits.increment();
+            return cached.value;
+        }
+        this.misses.increment();
+        V value = analyzer.apply(token);
+        synchronized (this.clock) {
+            Entry<V> previous = this.cache.putIfAbsent(token, new Entry<>(value));
+            if (previous != null) {
+                return previous.value;
+            }
+            this.clock.addLast(token);
+            if (this.cache.size() > this.maximumSize) {
+                evict();
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Moves the hand of the clock until it finds an entry that has not been hit since it last passed, and evicts it.
+     * Concurrent hits may mark an entry again behind the hand, so second chances are bounded to two turns of the clock.
+     */
+    private void evict() {
+        int sweep = 2 * this.clock.size();
+        while (true) {
+            String candidate = this.clock.pollFirst();
+            Entry<V> victim = this.cache.get(candidate);
+            if (victim.referenced && sweep-- > 0) {
+                victim.referenced = false;
+                this.clock.addLast(candidate);
+            } else {
+                this.cache.remove(candidate);
+                return;
+            }
+        }
+    }
+
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    public int size() {
+        return this.cache.size();
+    }
+
+    @Override
+    public String toString() {
+        return "preprocess.AnalysisCache{" +
+                "size=" + size() +
+                ", hits=" + getHits() +
+                ", misses=" + getMisses() +
+                '}';
+    }
+}
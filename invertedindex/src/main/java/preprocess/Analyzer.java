@@ -0,0 +1,45 @@
+package preprocess;
+
+import java.util.List;
+
+/**
+ * Turns the text of a document or a query into the terms of the index. Documents and queries must be analyzed by the
+ * same kind of analyzer, otherwise their terms do not match. An analyzer may keep state, such as a CoreNLP pipeline, so
+ * every thread needs an analyzer of its own.
+ * <p>
+ * Three analyzers are available:
+ * <ul>
+ * <li>lemma: CoreNLP tokenization, POS tagging and lemmatization, followed by `preprocess.TokenFilter`</li>
+ * <li>stem: the lemmas of the lemma analyzer, stemmed by the Porter `preprocess.Stemmer`</li>
+ * <li>fast: a rule-based tokenizer, followed by `preprocess.TokenFilter` and the Porter `preprocess.Stemmer`, which
+ * skips the CoreNLP models entirely</li>
+ * </ul>
+ */
+public interface Analyzer {
+    /**
+     * Creates an analyzer. The lemma and stem analyzers load the CoreNLP models, which takes seconds.
+     *
+     * @param name lemma, stem or fast
+     * @return a new analyzer
+     */
+    static Analyzer forName(String name) {
+        switch (name) {
+            case "lemma":
+                return new CoreNLPAnalyzer(false);
+            case "stem":
+                return new CoreNLPAnalyzer(true);
+            case "fast":
+                return new FastAnalyzer();
+            default:
+                throw new IllegalArgumentException("Unknown analyzer " + name);
+        }
+    }
+
+    /**
+     * Analyzes a text. Stopwords are not removed.
+     *
+     * @param text  text to analyze
+     * @param terms list the terms of the text are added to, in the order they occur in the text
+     */
+    void analyze(String text, List<String> terms);
+}
@@ -0,0 +1,46 @@
+package preprocess;
+
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.pipeline.StanfordCoreNLP;
+import edu.stanford.nlp.util.CoreMap;
+
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Analyzes text with a CoreNLP pipeline that tokenizes, POS tags and lemmatizes it. The lemmas are re-tokenized by
+ * `preprocess.TokenFilter` and optionally stemmed.
+ */
+class CoreNLPAnalyzer implements Analyzer {
+    private final StanfordCoreNLP pipeline;
+    private final boolean useStemming;
+
+    /**
+     * @param useStemming whether to stem the lemmas
+     */
+    CoreNLPAnalyzer(boolean useStemming) {
+        Properties props = new Properties();
+        props.setProperty("annotators", "tokenize,ssplit,pos,lemma");
+        this.pipeline = new StanfordCoreNLP(props);
+        this.useStemming = useStemming;
+    }
+
+    @Override
+    public void analyze(String text, List<String> terms) {
+        Annotation document = new Annotation(text);
+        this.pipeline.annotate(document);
+
+        List<CoreMap> sentences = document.get(CoreAnnotations.SentencesAnnotation.class);
+
+        for (CoreMap sentence : sentences) {
+            for (CoreLabel token : sentence.get(CoreAnnotations.TokensAnnotation.class)) {
+                String lemma = token.get(CoreAnnotations.LemmaAnnotation.class);
+                for (String word : TokenFilter.filter(lemma)) {
+                    terms.add(this.useStemming ? Stemmer.stemWord(word) : word);
+                }
+            }
+        }
+    }
+}
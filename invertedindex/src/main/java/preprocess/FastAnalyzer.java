@@ -0,0 +1,81 @@
+package preprocess;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Analyzes text without CoreNLP. The tokenizer splits the text on every character that is neither a letter, a digit,
+ * an underscore, a dot nor a dash, and lower cases the tokens. Dots and dashes are kept so that `preprocess.TokenFilter`
+ * sees acronyms and meaningful dashes as the lemma analyzer does, except for a dot at the end of a token without other
+ * dots, which ends a sentence. The tokens are re-tokenized by `TokenFilter` and stemmed, so the terms are close to the
+ * ones of the stem analyzer, without POS tagging and lemmatization.
+ * <p>
+ * The tokenizer looks at one character at a time, so the text can be streamed in pieces.
+ */
+class FastAnalyzer implements StreamingAnalyzer {
+    /**
+     * Buffer the current token is lower cased in.
+     */
+    private char[] buffer = new char[64];
+
+    /**
+     * Number of characters of the current token.
+     */
+    private int length = 0;
+
+    private static boolean isTokenCharacter(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '.' || c == '-';
+    }
+
+    private boolean hasDot(int length) {
+        for (int i = 0; i < length; i++) {
+            if (this.buffer[i] == '.') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void add(char c, List<String> terms) {
+        if (isTokenCharacter(c)) {
+            if (this.length == this.buffer.length) {
+                this.buffer = Arrays.copyOf(this.buffer, 2 * this.length);
+            }
+            this.buffer[this.length++] = Character.toLowerCase(c);
+        } else if (this.length > 0) {
+            endToken(terms);
+        }
+    }
+
+    private void endToken(List<String> terms) {
+        if (this.buffer[this.length - 1] == '.' && !hasDot(this.length - 1)) {
+            this.length--;
+        }
+        for (String word : TokenFilter.filter(new String(this.buffer, 0, this.length))) {
+            terms.add(Stemmer.stemWord(word));
+        }
+        this.length = 0;
+    }
+
+    @Override
+    public void analyze(String text, List<String> terms) {
+        for (int i = 0; i < text.length(); i++) {
+            add(text.charAt(i), terms);
+        }
+        end(terms);
+    }
+
+    @Override
+    public void append(char[] text, int start, int length, List<String> terms) {
+        for (int i = start; i < start + length; i++) {
+            add(text[i], terms);
+        }
+    }
+
+    @Override
+    public void end(List<String> terms) {
+        if (this.length > 0) {
+            endToken(terms);
+        }
+    }
+}
@@ -10,12 +10,27 @@ import java.util.function.Function;
  * The preprocess.Stemmer class transforms a word into its root form.  The input
  * word can be provided a character at time (by calling add()), or at once
  * by calling one of the various stem(something) methods.
+ * <p/>
+ * A stemmer keeps the word being stemmed in a buffer, so it must not be
+ * shared by threads. Use stemWord(), which memoizes the stems and has a
+ * stemmer for every thread, from code that may run on several threads.
  *
  * @author Sepandar Kamvar (sdkamvar@stanford.edu)
  */
 
 public class Stemmer implements Function<Word, Word> {
     private static final int INC = 50;
+
+    /**
+     * Stemmers of the threads that call stemWord().
+     */
+    private static final ThreadLocal<Stemmer> stemmers = ThreadLocal.withInitial(Stemmer::new);
+
+    /**
+     * Caches the stems of the words stemmed by stemWord().
+     */
+    public static final AnalysisCache<String> STEMS = new AnalysisCache<>(1 << 16);
+
     private char[] b;
     private int i,     /* offset into b */
             i_end, /* offset to end of stemmed word */
@@ -28,6 +43,14 @@ public class Stemmer implements Function<Word, Word> {
         i_end = 0;
     }
 
+    /**
+     * Stems <code>word</code>, with the result cached. A word is only stemmed
+     * when it is not in the cache. Safe to call from any thread.
+     */
+    public static String stemWord(String word) {
+        return STEMS.get(word, w -> stemmers.get().stem(w));
+    }
+
     /**
      * Add a character to the word being stemmed.  When you are finished
      * adding characters, you can call stem(void) to stem the word.
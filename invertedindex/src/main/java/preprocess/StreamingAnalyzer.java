@@ -0,0 +1,27 @@
+package preprocess;
+
+import java.util.List;
+
+/**
+ * An analyzer that can also take the text in pieces, such as the character ranges a SAX parser reports, so the text of
+ * a document never has to be materialized as a String. A token may continue from one piece into the next, so the
+ * terms of a text are the same however it is split into pieces.
+ */
+public interface StreamingAnalyzer extends Analyzer {
+    /**
+     * Analyzes the next piece of the text.
+     *
+     * @param text   characters of the piece
+     * @param start  position of the piece in `text`
+     * @param length number of characters in the piece
+     * @param terms  list the terms of the completed tokens are added to
+     */
+    void append(char[] text, int start, int length, List<String> terms);
+
+    /**
+     * Ends the text, after which the analyzer starts a new text.
+     *
+     * @param terms list the terms of the last token are added to
+     */
+    void end(List<String> terms);
+}
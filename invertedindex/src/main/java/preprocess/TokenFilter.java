@@ -1,85 +1,171 @@
 package preprocess;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Used to re-tokenize results of lemmatization. Tailored for cranfield collection.
+ * <p>
+ * A token is first filtered: it is dropped when it has no letters, and the dots of acronyms like u.s.a. or i.b.m. are
+ * removed. Tokens that start with a number, or that do not have a meaningful dash, are then split on every character
+ * that is not a letter, a digit or an underscore, and the parts without letters are dropped.
+ * <p>
+ * The token is classified and split by scanning its characters, with no regular expressions and no backtracking. A
+ * `TokenFilter` keeps a buffer to remove the dots of acronyms in, so it can be reused for any number of tokens, but not
+ * by several threads at once.
  */
 public class TokenFilter {
     /**
-     * Regex to match words that do not have any alphabets.
+     * Filters of the threads that call `filter(String)`.
      */
-    static Pattern nonAlphabets = Pattern.compile("^[^a-zA-Z]*$");
+    private static final ThreadLocal<TokenFilter> filters = ThreadLocal.withInitial(TokenFilter::new);
 
     /**
-     * Regex to match words that start with a number.
+     * Caches the tokens of every token filtered by `filter(String)`.
      */
-    static Pattern startsWithNumber = Pattern.compile("^\\d+(?:\\W*\\w*)*");
+    public static final AnalysisCache<List<String>> TOKENS = new AnalysisCache<>(1 << 16);
 
     /**
-     * Regex to match acronyms like u.s.a. or i.b.m. Doesn't match ph.d. (the acronym has to be a single character
-     * followed by a dot (.)
+     * Buffer the dots of acronyms are removed in.
      */
-    static Pattern acronyms = Pattern.compile(".*(?<![a-zA-Z0-9])([a-zA-Z]{1}\\.{1}){2,5}.*");
+    private char[] buffer = new char[32];
 
     /**
-     * Regex to match dashes when they impart meaning -- when a sequence of digits follow a word or character separated
-     * by a dash or when the word preceding the dash is 2 characters or less and only a sequence of alphabets follow the
-     * dash.
+     * Re-tokenizes a token.
+     *
+     * @param token  word to re-tokenize
+     * @param tokens list the resulting tokens are added to
+     * @return number of tokens added
      */
-    static Pattern dashes = Pattern.compile(".*(?:\\w+-\\d+).*|^[a-zA-Z]{1,2}-\\w+");
+    public int filter(String token, List<String> tokens) {
+        if (!hasLetter(token)) {
+            return 0;
+        }
+        if (isAcronym(token)) {
+            token = removeDots(token);
+        }
+        if (startsWithNumber(token) || !hasMeaningfulDash(token)) {
+            return split(token, tokens);
+        }
+        tokens.add(token);
+        return 1;
+    }
 
-    private List<String> tokens = new ArrayList<>();
+    /**
+     * Re-tokenizes a token, with the result cached. Safe to call from any thread.
+     *
+     * @param token word to re-tokenize
+     * @return the tokens, which must not be modified
+     */
+    public static List<String> filter(String token) {
+        return TOKENS.get(token, t -> {
+            List<String> tokens = new ArrayList<>(1);
+            filters.get().filter(t, tokens);
+            return Collections.unmodifiableList(tokens);
+        });
+    }
 
-    public TokenFilter(String token) {
-        token = filterToken(token);
-        String[] results = splitToken(token);
-        for (String t : results) {
-            String filteredToken = filterToken(t);
-            if (!"".equals(filteredToken)) {
-                this.tokens.add(filteredToken);
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * @return true for the characters of words: letters, digits and the underscore
+     */
+    private static boolean isWordCharacter(char c) {
+        return isLetter(c) || isDigit(c) || c == '_';
+    }
+
+    private static boolean hasLetter(String token) {
+        for (int i = 0; i < token.length(); i++) {
+            if (isLetter(token.charAt(i))) {
+                return true;
             }
         }
+        return false;
     }
 
     /**
-     * When a token needs to be split, usually on the punctuation in the token.
-     *
-     * @param token word to split
-     * @return a list of Strings after splitting the token
+     * Acronyms like u.s.a. or i.b.m. have at least two single letters, each followed by a dot, that do not follow a
+     * letter or a digit. Doesn't match ph.d.
      */
-    private String[] splitToken(String token) {
-        Matcher m1 = startsWithNumber.matcher(token);
-        Matcher m2 = dashes.matcher(token);
-        if (m1.find() || !m2.find()) {
-            return token.split("\\W");
-        } else {
-            return new String[]{token};
+    private static boolean isAcronym(String token) {
+        for (int i = 0; i + 3 < token.length(); i++) {
+            if (isLetter(token.charAt(i)) && token.charAt(i + 1) == '.' && isLetter(token.charAt(i + 2)) &&
+                    token.charAt(i + 3) == '.' && (i == 0 || !(isLetter(token.charAt(i - 1)) ||
+                    isDigit(token.charAt(i - 1))))) {
+                return true;
+            }
         }
+        return false;
+    }
+
+    private String removeDots(String token) {
+        if (this.buffer.length < token.length()) {
+            this.buffer = new char[token.length()];
+        }
+        int length = 0;
+        for (int i = 0; i < token.length(); i++) {
+            char c = token.charAt(i);
+            if (c != '.') {
+                this.buffer[length++] = c;
+            }
+        }
+        return new String(this.buffer, 0, length);
+    }
+
+    private static boolean startsWithNumber(String token) {
+        return !token.isEmpty() && isDigit(token.charAt(0));
     }
 
     /**
-     * When the token only needs to be filtered or dots in acronyms need to be removed.
-     *
-     * @param token word to filter
-     * @return filtered word
+     * Dashes impart meaning when a sequence of digits follows a word or character separated by the dash, or when the
+     * token starts with a word of 2 characters or less followed by the dash and a word.
      */
-    private String filterToken(String token) {
-        Matcher m1 = nonAlphabets.matcher(token);
-        Matcher m2 = acronyms.matcher(token);
-        if (m1.find()) {
-            return "";
-        } else if (m2.find()) {
-            return token.replace(".", "");
-        } else {
-            return token;
+    private static boolean hasMeaningfulDash(String token) {
+        for (int i = 1; i + 1 < token.length(); i++) {
+            if (token.charAt(i) == '-' && isWordCharacter(token.charAt(i - 1)) && isDigit(token.charAt(i + 1))) {
+                return true;
+            }
         }
+        int letters = 0;
+        while (letters < 2 && letters < token.length() && isLetter(token.charAt(letters))) {
+            letters++;
+        }
+        for (int dash = 1; dash <= letters; dash++) {
+            if (dash + 1 < token.length() && token.charAt(dash) == '-' && isWordCharacter(token.charAt(dash + 1))) {
+                return true;
+            }
+        }
+        return false;
     }
 
-    public List<String> getTokens() {
-        return tokens;
+    /**
+     * Splits the token into its words and adds the words that have letters.
+     *
+     * @return number of tokens added
+     */
+    private static int split(String token, List<String> tokens) {
+        int added = 0;
+        int start = 0;
+        boolean letters = false;
+        for (int i = 0; i <= token.length(); i++) {
+            if (i < token.length() && isWordCharacter(token.charAt(i))) {
+                letters |= isLetter(token.charAt(i));
+                continue;
+            }
+            if (letters) {
+                tokens.add(start == 0 && i == token.length() ? token : token.substring(start, i));
+                added++;
+            }
+            start = i + 1;
+            letters = false;
+        }
+        return added;
     }
-}
\ No newline at end of file
+}
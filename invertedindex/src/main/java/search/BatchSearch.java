@@ -0,0 +1,92 @@
+package search;
+
+import index.IndexReader;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Runs many queries against one index on all cores, for evaluation runs over thousands of queries. Queries are
+ * independent: ranking reads the index and the `QueryAnalyzer` without changing them, and every thread scores into an
+ * accumulator of its own, so the throughput grows with the number of threads. The queries are split among the threads
+ * of a fork/join pool, which balances queries of very different cost by work stealing.
+ * <p>
+ * Arguments of `main`: the index folder, the name of the index files (e.g. compressed.pfor.frontcoding), the analyzer
+ * the index was built with (lemma, stem or fast), the query file, and optionally the number of threads (the number of
+ * cores by default). The top 10 documents of every query under w1 are printed as query number, rank, doc id and score.
+ */
+public class BatchSearch implements AutoCloseable {
+    private final QueryAnalyzer analyzer;
+    private final ForkJoinPool pool;
+
+    /**
+     * @param analyzer analyzer of the queries, with as many pipelines as threads so that no thread waits for one
+     * @param threads  number of queries run at the same time
+     */
+    public BatchSearch(QueryAnalyzer analyzer, int threads) {
+        this.analyzer = analyzer;
+        this.pool = new ForkJoinPool(threads);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+        IndexReader index = new IndexReader(args[0], args[1]);
+        List<String> queries = Files.readAllLines(Paths.get(args[3]));
+        try (BatchSearch batch = new BatchSearch(new QueryAnalyzer(index, threads, args[2]), threads)) {
+            long start = System.nanoTime();
+            List<Map<Integer, Double>> results = batch.run(queries, "bmw", 10, "w1");
+            long elapsed = System.nanoTime() - start;
+            for (int i = 0; i < results.size(); i++) {
+                int rank = 1;
+                for (Map.Entry<Integer, Double> result : results.get(i).entrySet()) {
+                    System.out.println(i + "\t" + rank++ + "\t" + result.getKey() + "\t" + result.getValue());
+                }
+            }
+            System.err.printf("%d queries in %d ms on %d threads, %.1f queries/s%n", queries.size(),
+                    elapsed / 1000000, threads, queries.size() / (elapsed / 1e9));
+        }
+    }
+
+    /**
+     * Ranks the documents for every query.
+     *
+     * @param queries        texts of the queries
+     * @param method         ranking method, "vsm", "wand" or "bmw", see `QueryParser.rank`
+     * @param topK           the top K documents to return per query
+     * @param weightFunction either "w1" or "w2"
+     * @return the top K documents of every query, in the order of the queries
+     */
+    public List<Map<Integer, Double>> run(List<String> queries, String method, int topK, String weightFunction) {
+        if (!Arrays.asList("vsm", "wand", "bmw").contains(method)) {
+            throw new IllegalArgumentException("Unknown ranking method " + method);
+        }
+        List<String> texts = new ArrayList<>(queries);
+        try {
+            return this.pool.submit(() -> IntStream.range(0, texts.size()).parallel()
+                    .mapToObj(i -> this.analyzer.parse(texts.get(i)).rank(method, topK, weightFunction))
+                    .collect(Collectors.toList())).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while running queries", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("A query failed", e.getCause());
+        }
+    }
+
+    /**
+     * Stops the threads of the pool.
+     */
+    @Override
+    public void close() {
+        this.pool.shutdown();
+    }
+}
@@ -0,0 +1,83 @@
+package search;
+
+import index.DocumentInfo;
+import index.Weighting;
+
+import java.util.Map;
+
+/**
+ * The document information of an index in arrays indexed by doc id, so that scoring a posting does not box the doc id
+ * or look it up in a map. Created once per index.
+ */
+class DocumentTable {
+    private final int[] maxTf;
+    private final int[] docLen;
+    private final double[] normW1;
+    private final double[] normW2;
+
+    /**
+     * Score accumulator of every thread that runs queries against the index.
+     */
+    private final ThreadLocal<ScoreAccumulator> accumulators =
+            ThreadLocal.withInitial(() -> new ScoreAccumulator(size()));
+
+    DocumentTable(Map<Integer, DocumentInfo> docInfo) {
+        int maxDocId = -1;
+        for (int docId : docInfo.keySet()) {
+            maxDocId = Math.max(maxDocId, docId);
+        }
+        this.maxTf = new int[maxDocId + 1];
+        this.docLen = new int[maxDocId + 1];
+        this.normW1 = new double[maxDocId + 1];
+        this.normW2 = new double[maxDocId + 1];
+        for (Map.Entry<Integer, DocumentInfo> entry : docInfo.entrySet()) {
+            int docId = entry.getKey();
+            this.maxTf[docId] = entry.getValue().getMaxTf();
+            this.docLen[docId] = entry.getValue().getDocLen();
+            this.normW1[docId] = entry.getValue().getNorm("w1");
+            this.normW2[docId] = entry.getValue().getNorm("w2");
+        }
+    }
+
+    /**
+     * @return one more than the largest doc id, the size of an array indexed by doc id
+     */
+    int size() {
+        return this.maxTf.length;
+    }
+
+    /**
+     * Weight of a term in a document.
+     *
+     * @param weighting weighting functions of the index
+     * @param w1        true for the w1 weighting, false for w2
+     * @param tf        term frequency of the term in the document
+     * @param df        document frequency of the term
+     * @param docId     document id
+     * @return weight of the term in the document
+     */
+    double weight(Weighting weighting, boolean w1, int tf, int df, int docId) {
+        if (w1) {
+            return weighting.maxTfWeighting(tf, this.maxTf[docId], df);
+        }
+        return weighting.okapiTermWeighting(tf, this.docLen[docId], df);
+    }
+
+    /**
+     * @return the score accumulator of the current thread, cleared
+     */
+    ScoreAccumulator accumulator() {
+        ScoreAccumulator accumulator = this.accumulators.get();
+        accumulator.clear();
+        return accumulator;
+    }
+
+    /**
+     * @param w1    true for the w1 weighting, false for w2
+     * @param docId document id
+     * @return L2 norm of the document vector under the weighting
+     */
+    double norm(boolean w1, int docId) {
+        return w1 ? this.normW1[docId] : this.normW2[docId];
+    }
+}
@@ -1,90 +1,90 @@
 package search;
 
+import index.IndexReader;
 import index.Indexer;
+import index.InvertedIndex;
 import index.SPIMI;
 import util.ParseXMLFile;
 
-import java.io.*;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Runs the queries of a file against the cranfield collection. Arguments: the collection folder, the query file,
+ * optionally the analyzer (lemma, stem or fast, lemma by default), and optionally --compare to print how the index of
+ * the analyzer compares to the lemma index.
+ */
 class Driver {
     private static String folder;
-    private static String serializedIndexPath;
 
     public static void main(String[] args) throws IOException {
-        boolean useStemming = false;
         folder = args[0];
-        serializedIndexPath = "/tmp/lemma.index";
+        String analyzerName = args.length > 2 ? args[2] : "lemma";
 
-        // SPIMI index = Indexer.buildIndex(folder, useStemming);
-
-        // Start serialization: helpful when testing, avoid creating the same index several times
-        SPIMI index = null;
-        try {
-            // Reading the object from a file
-            FileInputStream file = new FileInputStream(serializedIndexPath);
-            ObjectInputStream in = new ObjectInputStream(file);
-
-            // Method for deserialization of object
-            index = (SPIMI) in.readObject();
-
-            in.close();
-            file.close();
-
-            System.out.println("Read index from disk.");
-        } catch (IOException ex) {
-            System.out.println("Need to re-create index.");
-            index = Indexer.buildIndex(folder, useStemming);
-            try {
-                //Saving of object in a file
-                FileOutputStream file = new FileOutputStream(serializedIndexPath);
-                ObjectOutputStream out = new ObjectOutputStream(file);
-
-                // Method for serialization of object
-                out.writeObject(index);
-
-                out.close();
-                file.close();
-
-                System.out.println("Object has been serialized");
-
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        } catch (ClassNotFoundException ex) {
-            ex.printStackTrace();
+        InvertedIndex index = openIndex(analyzerName);
+        System.out.println("Read index from disk.");
+        if (args.length > 3 && "--compare".equals(args[3])) {
+            System.out.println(Indexer.compareIndexes(openIndex("lemma"), index));
         }
-        // end serialization
+        // the analyzer models are loaded once for all queries
+        QueryAnalyzer analyzer = new QueryAnalyzer(index, 1, analyzerName);
 
         // write to file
         String hwQueriesFile = args[1];
         List<String> hw3Queries = Files.readAllLines(Paths.get(hwQueriesFile));
         for (int i = 0; i < hw3Queries.size(); i++) {
+            QueryParser search = analyzer.parse(hw3Queries.get(i));
             for (String w : Arrays.asList("w1", "w2")) {
                 String out = "/tmp/" + w + "-q" + i + ".txt";
-                writeSearchResults(hw3Queries.get(i), index, w, out);
+                writeSearchResults(hw3Queries.get(i), search, w, out);
             }
         }
     }
 
+    /**
+     * Opens the index built with an analyzer, and builds it first if it does not exist yet.
+     *
+     * @param analyzerName lemma, stem or fast
+     * @return the uncompressed index
+     * @throws IOException
+     */
+    private static InvertedIndex openIndex(String analyzerName) throws IOException {
+        String indexFolder = "/tmp/" + analyzerName;
+        // the index is read from the binary files written by index.Compression, avoids creating the same index
+        // several times when testing
+        if (!IndexReader.exists(indexFolder, "uncompressed")) {
+            System.out.println("Need to re-create index.");
+            // one annotator per core, together the partial indexes write blocks over a quarter of the heap to disk
+            int workers = Runtime.getRuntime().availableProcessors();
+            long memoryBudget = Runtime.getRuntime().maxMemory() / 4 / workers;
+            AtomicInteger worker = new AtomicInteger();
+            SPIMI spimi = Indexer.buildIndex(folder, analyzerName, workers, () -> new SPIMI(memoryBudget,
+                    Paths.get(indexFolder, "runs", "worker-" + worker.getAndIncrement()).toString()));
+            Indexer.compressIndex(spimi, indexFolder);
+            spimi.deleteRuns();
+        }
+        return new IndexReader(indexFolder, "uncompressed");
+    }
+
     /**
      * Convinience function that writes search result for a query to a file.
      *
      * @param text           query text
-     * @param index          index to use for querying
+     * @param search         parser of the query
      * @param weightFunction w1 or w2
      * @param outfile        file to write to
      * @throws IOException
      */
-    private static void writeSearchResults(String text, SPIMI index, String weightFunction, String outfile)
+    private static void writeSearchResults(String text, QueryParser search, String weightFunction, String outfile)
             throws IOException {
-        QueryParser search = new QueryParser(text, index);
-
-        Map<Integer, Double> top5 = search.vectorSpaceModel(5, weightFunction);
+        Map<Integer, Double> top5 = search.blockMaxWand(5, weightFunction);
 
         FileWriter fw = new FileWriter(outfile);
         try (PrintWriter pw = new PrintWriter(fw)) {
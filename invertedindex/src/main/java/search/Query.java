@@ -32,6 +32,20 @@ public class Query {
         return this.parsed.getOrDefault(term, 0);
     }
 
+    /**
+     * Queries are equal if they have the same terms with the same term frequencies, whatever text they were analyzed
+     * from.
+     */
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Query && this.parsed.equals(((Query) o).parsed);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.parsed.hashCode();
+    }
+
     @Override
     public String toString() {
         return "Query{" +
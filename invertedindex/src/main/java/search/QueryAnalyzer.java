@@ -0,0 +1,133 @@
+package search;
+
+import index.InvertedIndex;
+import index.SPIMI;
+import index.Weighting;
+import preprocess.Analyzer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Analyzes queries against one index. Loading the CoreNLP models takes seconds, so a fixed pool of analyzers is created
+ * up front and shared by all queries; a thread borrows an analyzer for the duration of one query. The queries must be
+ * analyzed by the same kind of `preprocess.Analyzer` as the documents of the index. The collection statistics used by
+ * the weighting functions are computed once for the index. A query analyzer can be used by several threads at the same
+ * time.
+ */
+public class QueryAnalyzer {
+    private final InvertedIndex index;
+    private final Weighting weighting;
+    private final DocumentTable documents;
+    private final BlockingQueue<Analyzer> pipelines;
+
+    /**
+     * Latencies of the stages of the queries, null if they are not recorded.
+     */
+    private final QueryMetrics metrics;
+
+    /**
+     * Creates an analyzer with a single lemma pipeline.
+     *
+     * @param index index the queries are run against
+     */
+    public QueryAnalyzer(InvertedIndex index) {
+        this(index, 1);
+    }
+
+    /**
+     * Creates an analyzer with lemma pipelines.
+     *
+     * @param index             index the queries are run against
+     * @param numberOfPipelines number of queries that can be annotated at the same time
+     */
+    public QueryAnalyzer(InvertedIndex index, int numberOfPipelines) {
+        this(index, numberOfPipelines, "lemma");
+    }
+
+    /**
+     * @param index             index the queries are run against
+     * @param numberOfPipelines number of queries that can be analyzed at the same time
+     * @param analyzer          name of the `preprocess.Analyzer` the index was built with: lemma, stem or fast
+     */
+    public QueryAnalyzer(InvertedIndex index, int numberOfPipelines, String analyzer) {
+        this(index, numberOfPipelines, analyzer, null);
+    }
+
+    /**
+     * @param index             index the queries are run against
+     * @param numberOfPipelines number of queries that can be analyzed at the same time
+     * @param analyzer          name of the `preprocess.Analyzer` the index was built with: lemma, stem or fast
+     * @param metrics           metrics to record the latency of the stages of the queries in, or null
+     */
+    public QueryAnalyzer(InvertedIndex index, int numberOfPipelines, String analyzer, QueryMetrics metrics) {
+        this.index = index;
+        this.metrics = metrics;
+        this.weighting = Weighting.of(index.getDocInfo());
+        this.documents = new DocumentTable(index.getDocInfo());
+        this.pipelines = new ArrayBlockingQueue<>(numberOfPipelines);
+        for (int i = 0; i < numberOfPipelines; i++) {
+            this.pipelines.add(Analyzer.forName(analyzer));
+        }
+    }
+
+    public InvertedIndex getIndex() {
+        return index;
+    }
+
+    public Weighting getWeighting() {
+        return weighting;
+    }
+
+    /**
+     * Parses the query in the same fashion as the documents.
+     *
+     * @param text the text of the query
+     * @return a Query object
+     */
+    public Query analyze(String text) {
+        long start = System.nanoTime();
+        Query parsedQuery = new Query();
+
+        // analyze the query with an analyzer from the pool, waits if all analyzers are in use
+        List<String> terms = new ArrayList<>();
+        Analyzer pipeline = borrowPipeline();
+        try {
+            pipeline.analyze(text, terms);
+        } finally {
+            this.pipelines.add(pipeline);
+        }
+
+        for (String word : terms) {
+            if (!SPIMI.STOPWORDS.contains(word)) {
+                parsedQuery.putWord(word);
+            }
+        }
+        if (this.metrics != null) {
+            this.metrics.record(QueryMetrics.Stage.ANALYSIS, System.nanoTime() - start);
+        }
+
+        return parsedQuery;
+    }
+
+    /**
+     * Analyzes the query and creates a parser to rank the documents of the index for it.
+     *
+     * @param text the text of the query
+     * @return a parser for the query
+     */
+    public QueryParser parse(String text) {
+        return new QueryParser(analyze(text), this.index, this.weighting, this.documents, this.metrics);
+    }
+
+    private Analyzer borrowPipeline() {
+        try {
+            return this.pipelines.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a query pipeline", e);
+        }
+    }
+}
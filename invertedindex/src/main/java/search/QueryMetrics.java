@@ -0,0 +1,106 @@
+package search;
+
+import util.LatencyHistogram;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency of the queries answered by a `QueryServer`, in total and per stage, in histograms shared by all threads.
+ * Posting lists are decoded lazily while they are scored, so decoding is part of the scoring stage; the posting stage
+ * covers the dictionary lookups and opening the posting lists (and reading the block maxima for WAND).
+ * <p>
+ * The metrics are written in the text format of Prometheus, as summaries with the 50th, 90th, 99th and 99.9th
+ * percentiles since the server started, with a counter of the query terms that are not in the index.
+ */
+public class QueryMetrics {
+    /**
+     * Stages of a query, in the order they run.
+     */
+    public enum Stage {
+        ANALYSIS, POSTINGS, SCORING, TOP_K, FORMATTING
+    }
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final Map<Stage, LatencyHistogram> stages = new EnumMap<>(Stage.class);
+    private final LatencyHistogram queries = new LatencyHistogram();
+    private final LongAdder unknownTerms = new LongAdder();
+
+    public QueryMetrics() {
+        for (Stage stage : Stage.values()) {
+            this.stages.put(stage, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * @param stage stage of a query
+     * @param nanos time the stage took
+     */
+    public void record(Stage stage, long nanos) {
+        this.stages.get(stage).record(nanos);
+    }
+
+    /**
+     * @param nanos time a whole query took, from receiving it to having sent the results
+     */
+    public void recordQuery(long nanos) {
+        this.queries.record(nanos);
+    }
+
+    /**
+     * Counts a query term that is not in the index.
+     */
+    public void recordUnknownTerm() {
+        this.unknownTerms.increment();
+    }
+
+    public long getUnknownTerms() {
+        return this.unknownTerms.sum();
+    }
+
+    public LatencyHistogram getHistogram(Stage stage) {
+        return this.stages.get(stage);
+    }
+
+    public LatencyHistogram getQueryHistogram() {
+        return this.queries;
+    }
+
+    /**
+     * @return the metrics in the Prometheus text format, in seconds
+     */
+    public String toPrometheus() {
+        StringBuilder out = new StringBuilder();
+        out.append("# HELP query_latency_seconds Latency of queries, from receiving them to having sent the results.\n");
+        out.append("# TYPE query_latency_seconds summary\n");
+        summary(out, "query_latency_seconds", "", this.queries);
+        out.append("# HELP query_stage_latency_seconds Latency of the stages of queries.\n");
+        out.append("# TYPE query_stage_latency_seconds summary\n");
+        for (Stage stage : Stage.values()) {
+            String label = "stage=\"" + stage.name().toLowerCase(Locale.ROOT) + "\"";
+            summary(out, "query_stage_latency_seconds", label, this.stages.get(stage));
+        }
+        out.append("# HELP query_unknown_terms_total Query terms that are not in the index.\n");
+        out.append("# TYPE query_unknown_terms_total counter\n");
+        out.append("query_unknown_terms_total ").append(getUnknownTerms()).append('\n');
+        return out.toString();
+    }
+
+    private static void summary(StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+        String separator = labels.isEmpty() ? "" : ",";
+        for (double quantile : QUANTILES) {
+            out.append(name).append('{').append(labels).append(separator).append("quantile=\"").append(quantile)
+                    .append("\"} ").append(seconds(histogram.getValueAtQuantile(quantile))).append('\n');
+        }
+        String braces = labels.isEmpty() ? "" : "{" + labels + "}";
+        out.append(name).append("_sum").append(braces).append(' ').append(seconds(histogram.getSum())).append('\n');
+        out.append(name).append("_count").append(braces).append(' ').append(histogram.getCount()).append('\n');
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+    }
+}
@@ -1,193 +1,241 @@
 package search;
 
-import edu.stanford.nlp.ling.CoreAnnotations;
-import edu.stanford.nlp.ling.CoreLabel;
-import edu.stanford.nlp.pipeline.Annotation;
-import edu.stanford.nlp.pipeline.StanfordCoreNLP;
-import edu.stanford.nlp.util.CoreMap;
-import index.DocumentInfo;
-import index.PostingsEntry;
-import index.SPIMI;
-import index.TermWeight;
-import preprocess.TokenFilter;
+import index.InvertedIndex;
+import index.PostingsIterator;
+import index.Weighting;
 
 import java.util.*;
-import java.util.stream.Collectors;
 
 /**
  * A query parser, to convert the query to a vector and compute weights.
  */
 public class QueryParser {
-    private StanfordCoreNLP pipeline;
     private Query query;
-    private SPIMI index;
-    private int collectionSize;
-    private double avgDocLen;
-
-    public QueryParser(String text, SPIMI index) {
-        Properties props = new Properties();
-        props.setProperty("annotators", "tokenize,ssplit,pos,lemma");
-        this.pipeline = new StanfordCoreNLP(props);
-        this.query = this.parseQuery(text);
-        this.index = index;
-        this.collectionSize = this.index.getDocInfo().size();
-        // calculate average doc length
-        for (DocumentInfo d : this.index.getDocInfo().values()) {
-            this.avgDocLen += d.getDocLen();
-        }
-        this.avgDocLen /= this.collectionSize;
-    }
+    private InvertedIndex index;
+    private Weighting weighting;
+    private DocumentTable documents;
 
     /**
-     * Parses the query in the same fashion as the documents.
-     *
-     * @param text the text of the query
-     * @return a Query object
+     * Latencies of the stages of the query, null if they are not recorded.
      */
-    public Query parseQuery(String text) {
-        Query parsedQuery = new Query();
-
-        // annotate document
-        Annotation document = new Annotation(text);
-        this.pipeline.annotate(document);
-        List<CoreMap> sentences = document.get(CoreAnnotations.SentencesAnnotation.class);
-
-        for (CoreMap sentence : sentences) {
-            for (CoreLabel token : sentence.get(CoreAnnotations.TokensAnnotation.class)) {
-                String lemma = token.get(CoreAnnotations.LemmaAnnotation.class);
-                TokenFilter tokenFilterObj = new TokenFilter(lemma);
-                for (String word : tokenFilterObj.getTokens()) {
-                    if (!SPIMI.STOPWORDS.contains(word)) {
-                        parsedQuery.putWord(word);
-                    }
-                }
-            }   // end for tokens
-        }   // end for sentences
+    private QueryMetrics metrics;
 
-        return parsedQuery;
-    }
+    /**
+     * Weighting function of the last call to `vectorSpaceModel`, either w1 or w2.
+     */
+    private String weightFunction = "w1";
 
     /**
-     * A variant of the well known maxTf term weighting function.
+     * Creates a parser with a pipeline of its own, which loads the CoreNLP models. Use a shared `QueryAnalyzer` to
+     * parse more than one query.
      *
-     * @param tf    term frequency of the term
-     * @param maxTf maximum term frequency in document
-     * @param df    document frequency
-     * @return weight of the term
+     * @param text  the text of the query
+     * @param index index to rank the documents of
      */
-    private double maxTfWeighting(int tf, int maxTf, int df) {
-        if (tf == 0 || maxTf == 0 || df == 0) {
-            return 0.0;
-        }
-        return (0.4 + 0.6 * Math.log(tf + 0.5) / Math.log(maxTf + 1.0)) *
-                Math.log((double) (this.collectionSize / df)) / Math.log(this.collectionSize);
+    public QueryParser(String text, InvertedIndex index) {
+        this(new QueryAnalyzer(index).analyze(text), index, Weighting.of(index.getDocInfo()),
+                new DocumentTable(index.getDocInfo()), null);
+    }
+
+    /**
+     * @param query     the analyzed query
+     * @param index     index to rank the documents of
+     * @param weighting weighting functions with the collection statistics of the index
+     * @param documents document information of the index by doc id
+     * @param metrics   metrics to record the latency of the stages of the query in, or null
+     */
+    QueryParser(Query query, InvertedIndex index, Weighting weighting, DocumentTable documents,
+                QueryMetrics metrics) {
+        this.query = query;
+        this.index = index;
+        this.weighting = weighting;
+        this.documents = documents;
+        this.metrics = metrics;
+    }
+
+    Query getQuery() {
+        return this.query;
+    }
+
+    InvertedIndex getIndex() {
+        return this.index;
     }
 
     /**
-     * A variant of the Okapi term weighting function.
+     * Records the time since the start of a stage.
      *
-     * @param tf     term frequency
-     * @param docLen maximum term frequency if document
-     * @param df     document frequency
-     * @return weight of the term
+     * @param stage stage that ended
+     * @param start `System.nanoTime` at the start of the stage
+     * @return `System.nanoTime` now, the start of the next stage
      */
-    private double okapiTermWeighting(int tf, int docLen, int df) {
-        if (tf == 0 || docLen == 0 || df == 0) {
-            return 0.0;
+    private long endStage(QueryMetrics.Stage stage, long start) {
+        long now = System.nanoTime();
+        if (this.metrics != null) {
+            this.metrics.record(stage, now - start);
+        }
+        return now;
+    }
+
+    private void unknownTerm() {
+        if (this.metrics != null) {
+            this.metrics.recordUnknownTerm();
         }
-        return (0.4 + 0.6 * (tf / (tf + 0.5 + 1.5 *
-                (docLen / this.avgDocLen))) * Math.log(this.collectionSize / df) /
-                Math.log(this.collectionSize));
     }
 
     /**
-     * Computes the term weights for all terms in the indices using the specified weighting function.
+     * Weight of a term in a document using the specified weighting function.
      *
+     * @param tf             term frequency of the term in the document
+     * @param df             document frequency of the term
+     * @param docId          document id
      * @param weightFunction either w1 or w2
+     * @return weight of the term in the document
      */
-    public void computeTermWeights(String weightFunction) {
-        // iterate over the index, compute term weights and document length
-        for (Map.Entry<String, PostingsEntry> e : this.index.getInvertedIndex().entrySet()) {
-            PostingsEntry pe = e.getValue();
-
-            for (Map.Entry<Integer, TermWeight> plEntry : pe.getPostingsList().entrySet()) {
-                int docId = plEntry.getKey();
-                int tf = plEntry.getValue().getTf();
-                int df = pe.getDocumentFrequency();
-                // compute weighted tf
-                double tfWeighted = 0.0;
-                if (weightFunction.equalsIgnoreCase("w1")) {
-                    int maxTf = this.index.getMaxTf(docId);
-                    tfWeighted = maxTfWeighting(tf, maxTf, df);
-                } else {
-                    int docLen = this.index.getDocLen(docId);
-                    tfWeighted = okapiTermWeighting(tf, docLen, df);
-                }
-                // update term weight
-                TermWeight tw = plEntry.getValue();
-                tw.setTfWeighted(tfWeighted);
-                // update l2 norm for document
-                this.index.getDocInfo().get(docId).updateLenSquared(tfWeighted * tfWeighted);
-            }   // end iteration over posting list
-        }   // end iteration over index
+    private double getWeightOfTermInDocument(int tf, int df, int docId, String weightFunction) {
+        return this.weighting.weight(weightFunction, tf, df, this.index.getDocInfo().get(docId));
     }
 
     /**
      * Helper function to find weight of a term in the current query
      *
      * @param term the term
+     * @param df   document frequency of the term
      * @return weight of term in query
      */
-    private double getWeightOfTermInQuery(String term) {
-        int df = this.index.getDF(term);
+    private double getWeightOfTermInQuery(String term, int df) {
         int maxTf = this.query.getMaxTf();
         int tf = this.query.getTf(term);
-        return maxTfWeighting(tf, maxTf, df);
+        return this.weighting.maxTfWeighting(tf, maxTf, df);
     }
 
     /**
-     * Ranks the documents using the vector space model.
+     * Ranks the documents using the vector space model. Only the posting lists of the query terms are read, the
+     * lengths of the documents are the norms stored in the index for the weighting function. Scores are accumulated in
+     * an array indexed by doc id, which every thread allocates once and reuses for all its queries, and the best
+     * documents are kept in a heap of size K, so nothing is allocated per posting.
      *
      * @param topK           the top K documents to return
      * @param weightFunction either "w1" or "w2"
      * @return the top K documents relevant to the query
      */
     public Map<Integer, Double> vectorSpaceModel(int topK, String weightFunction) {
-        this.computeTermWeights(weightFunction);
-        Map<Integer, Double> scores = new HashMap<>();  // doc id is key
+        this.weightFunction = weightFunction;
+        boolean w1 = weightFunction.equalsIgnoreCase("w1");
+        ScoreAccumulator scores = this.documents.accumulator();
         double queryLengthSquared = 0.0;
+        long start = System.nanoTime();
+        int numberOfTerms = this.query.getTerms().size();
+        PostingsIterator[] postingLists = new PostingsIterator[numberOfTerms];
+        int[] dfs = new int[numberOfTerms];
+        double[] queryWeights = new double[numberOfTerms];
+        int t = 0;
         for (String term : this.query.getTerms()) {
-            double wTQ = getWeightOfTermInQuery(term);
+            int termId = this.index.getTermId(term);
+            int df = termId < 0 ? 0 : this.index.getDF(termId);
+            double wTQ = getWeightOfTermInQuery(term, df);
             queryLengthSquared += wTQ * wTQ;
-            if (!this.index.getInvertedIndex().containsKey(term)) {
-                System.out.println("Term not found in index");
+            if (df == 0) {
+                unknownTerm();
                 continue;
             }
-            Map<Integer, TermWeight> postingList = this.index.getPostingList(term);
-            for (Map.Entry<Integer, TermWeight> entry : postingList.entrySet()) {
-                int docId = entry.getKey();
-                double wTD = entry.getValue().getTfWeighted();
-                double dot = wTD * wTQ;
-                scores.computeIfPresent(docId, (k, v) -> v + dot);
-                scores.putIfAbsent(docId, dot);
+            postingLists[t] = this.index.getPostings(termId);
+            dfs[t] = df;
+            queryWeights[t++] = wTQ;
+        }
+        start = endStage(QueryMetrics.Stage.POSTINGS, start);
+
+        for (int i = 0; i < t; i++) {
+            PostingsIterator postings = postingLists[i];
+            for (int docId = postings.nextDoc(); docId != PostingsIterator.NO_MORE_DOCS; docId = postings.nextDoc()) {
+                double wTD = this.documents.weight(this.weighting, w1, postings.tf(), dfs[i], docId);
+                scores.add(docId, wTD * queryWeights[i]);
             }
         }
+        start = endStage(QueryMetrics.Stage.SCORING, start);
 
         double queryLength = Math.sqrt(queryLengthSquared);
 
-        // normalize scores by length
-        for (Integer docId : scores.keySet()) {
-            scores.computeIfPresent(docId,
-                    (k, v) -> v / Math.sqrt(this.index.getDocInfo().get(docId).getWeightedDocLenSquared()) /
-                            queryLength);
+        // normalize scores by length and keep the top k
+        TopK top = new TopK(topK);
+        for (int i = 0; i < scores.getNumberOfMatches(); i++) {
+            int docId = scores.getMatch(i);
+            top.add(docId, scores.getScore(docId) / this.documents.norm(w1, docId) / queryLength);
+        }
+        Map<Integer, Double> results = top.toMap();
+        endStage(QueryMetrics.Stage.TOP_K, start);
+        return results;
+    }
+
+    /**
+     * Ranks the documents with one of the ranking methods, which all return the same documents and scores.
+     *
+     * @param method         "vsm" for `vectorSpaceModel`, "wand" for `wand` or "bmw" for `blockMaxWand`
+     * @param topK           the top K documents to return
+     * @param weightFunction either "w1" or "w2"
+     * @return the top K documents relevant to the query
+     */
+    public Map<Integer, Double> rank(String method, int topK, String weightFunction) {
+        switch (method) {
+            case "vsm":
+                return vectorSpaceModel(topK, weightFunction);
+            case "wand":
+                return wand(topK, weightFunction);
+            case "bmw":
+                return blockMaxWand(topK, weightFunction);
+            default:
+                throw new IllegalArgumentException("Unknown ranking method " + method);
         }
+    }
+
+    /**
+     * Ranks the documents like `vectorSpaceModel`, but document-at-a-time with WAND dynamic pruning, which skips the
+     * documents that can not make it to the top K. Returns exactly the same documents and scores.
+     *
+     * @param topK           the top K documents to return
+     * @param weightFunction either "w1" or "w2"
+     * @return the top K documents relevant to the query
+     */
+    public Map<Integer, Double> wand(int topK, String weightFunction) {
+        return dynamicPruning(topK, weightFunction, false);
+    }
+
+    /**
+     * Ranks the documents like `vectorSpaceModel`, but document-at-a-time with Block-Max WAND dynamic pruning, which
+     * also uses the bounds of the blocks of the posting lists to skip documents. Returns exactly the same documents and
+     * scores.
+     *
+     * @param topK           the top K documents to return
+     * @param weightFunction either "w1" or "w2"
+     * @return the top K documents relevant to the query
+     */
+    public Map<Integer, Double> blockMaxWand(int topK, String weightFunction) {
+        return dynamicPruning(topK, weightFunction, true);
+    }
 
-        // return top k
-        return scores.entrySet().stream()
-                .sorted(Map.Entry.comparingByValue(Comparator.reverseOrder()))
-                .limit(topK)
-                .collect(Collectors.toMap(
-                        Map.Entry::getKey, Map.Entry::getValue, (e1, e2) -> e1, LinkedHashMap::new));
+    private Map<Integer, Double> dynamicPruning(int topK, String weightFunction, boolean blockMax) {
+        this.weightFunction = weightFunction;
+        long start = System.nanoTime();
+        List<Wand.Cursor> cursors = new ArrayList<>();
+        double queryLengthSquared = 0.0;
+        for (String term : this.query.getTerms()) {
+            int termId = this.index.getTermId(term);
+            int df = termId < 0 ? 0 : this.index.getDF(termId);
+            double wTQ = getWeightOfTermInQuery(term, df);
+            queryLengthSquared += wTQ * wTQ;
+            if (df == 0) {
+                unknownTerm();
+                continue;
+            }
+            cursors.add(new Wand.Cursor(this.index.getPostings(termId), this.index.getBlockMaxima(termId), df, wTQ));
+        }
+        start = endStage(QueryMetrics.Stage.POSTINGS, start);
+        // the heap of the top K documents is updated while scoring, only building the results is left
+        TopK top = new Wand(cursors, this.documents, this.weighting, weightFunction, Math.sqrt(queryLengthSquared),
+                blockMax).search(topK);
+        start = endStage(QueryMetrics.Stage.SCORING, start);
+        Map<Integer, Double> results = top.toMap();
+        endStage(QueryMetrics.Stage.TOP_K, start);
+        return results;
     }
 
     /**
@@ -207,26 +255,45 @@ public class QueryParser {
      * @param docId document id
      */
     public List<SparseVector> getVectors(int docId) {
-        // for simplicity, just consider all terms in dictionary
-        SortedSet<String> allTerms = new TreeSet<>(this.index.getInvertedIndex().keySet());
-        allTerms.addAll(this.query.getTerms());
+        // for simplicity, just consider all terms in dictionary, merged with the query terms; both are sorted
+        int numberOfTerms = this.index.getNumberOfTerms();
+        List<String> labels = new ArrayList<>(numberOfTerms + this.query.getTerms().size());
+        int[] termIds = new int[numberOfTerms + this.query.getTerms().size()];  // -1 for terms only in the query
+        Iterator<String> queryTerms = this.query.getTerms().iterator();
+        String queryTerm = queryTerms.hasNext() ? queryTerms.next() : null;
+        int termId = 0;
+        for (String term : this.index.getTerms()) {
+            while (queryTerm != null && queryTerm.compareTo(term) <= 0) {
+                if (!queryTerm.equals(term)) {
+                    termIds[labels.size()] = -1;
+                    labels.add(queryTerm);
+                }
+                queryTerm = queryTerms.hasNext() ? queryTerms.next() : null;
+            }
+            termIds[labels.size()] = termId++;
+            labels.add(term);
+        }
+        while (queryTerm != null) {
+            termIds[labels.size()] = -1;
+            labels.add(queryTerm);
+            queryTerm = queryTerms.hasNext() ? queryTerms.next() : null;
+        }
 
         // query and doc vector
-        List<String> labels = allTerms.stream().collect(Collectors.toList());
         SparseVector queryVector = new SparseVector(labels);
         SparseVector docVector = new SparseVector(labels);
 
-        int i = 0;
-        for (String term : allTerms) {
-            double wTQ = getWeightOfTermInQuery(term);
+        for (int i = 0; i < labels.size(); i++) {
+            int df = termIds[i] < 0 ? 0 : this.index.getDF(termIds[i]);
+            double wTQ = getWeightOfTermInQuery(labels.get(i), df);
             if (wTQ > 0.0) {
                 queryVector.put(i, wTQ);
             }
-            double wTD = this.index.getTFWeighted(term, docId);
+            int tf = termIds[i] < 0 ? 0 : this.index.getTf(termIds[i], docId);
+            double wTD = getWeightOfTermInDocument(tf, df, docId, this.weightFunction);
             if (wTD > 0.0) {
                 docVector.put(i, wTD);
             }
-            i += 1;
         }
 
         return Arrays.asList(queryVector, docVector);
@@ -0,0 +1,195 @@
+package search;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import index.IndexReader;
+import index.InvertedIndex;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Answers queries over HTTP from an index that is opened once and stays resident, so that queries run against a warm
+ * engine and their latency can be measured under load. Every thread answers one query at a time, with an analyzer of
+ * its own from a shared `QueryAnalyzer`.
+ * <p>
+ * Endpoints:
+ * <ul>
+ * <li>`GET /search?q=text[&k=10][&w=w1][&method=bmw]`: the top K documents for the query, one per line as rank, doc id
+ * and score separated by tabs. The weighting function `w` is w1 or w2, the method `vsm` (the vector space model),
+ * `wand` or `bmw` (block-max WAND)</li>
+ * <li>`GET /metrics`: the latency of the queries and of their stages in the Prometheus text format, see
+ * `QueryMetrics`</li>
+ * </ul>
+ * Arguments: the index folder, the name of the index files (e.g. compressed.pfor.frontcoding), the analyzer the index
+ * was built with (lemma, stem or fast), and optionally the port (8080 by default), the number of threads (the number
+ * of cores by default), the size of the `ResultCache` in MB (64 by default, 0 for no cache) and the size of the
+ * `index.BlockCache` of decoded posting blocks in MB (64 by default, 0 for no cache).
+ */
+public class QueryServer {
+    private final QueryAnalyzer analyzer;
+    private final QueryMetrics metrics;
+
+    /**
+     * Cache of the results of the queries, null if results are not cached.
+     */
+    private final ResultCache cache;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * Starts a server.
+     *
+     * @param analyzer analyzer of the queries, with at least as many pipelines as threads and the metrics to record
+     * @param metrics  metrics the analyzer records the stages of the queries in
+     * @param cache    cache of the results of the queries, or null
+     * @param port     port to listen on, 0 for any free port
+     * @param threads  number of queries answered at the same time
+     * @throws IOException if the port can not be bound
+     */
+    public QueryServer(QueryAnalyzer analyzer, QueryMetrics metrics, ResultCache cache, int port, int threads)
+            throws IOException {
+        this.analyzer = analyzer;
+        this.metrics = metrics;
+        this.cache = cache;
+        this.executor = Executors.newFixedThreadPool(threads);
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        this.server.createContext("/search", this::search);
+        this.server.createContext("/metrics", exchange -> respond(exchange, 200, "text/plain; version=0.0.4",
+                this.metrics.toPrometheus() + (this.cache == null ? "" : this.cache.toPrometheus()) +
+                        blockCacheMetrics()));
+        this.server.setExecutor(this.executor);
+        this.server.start();
+    }
+
+    public static void main(String[] args) throws IOException {
+        String analyzerName = args[2];
+        int port = args.length > 3 ? Integer.parseInt(args[3]) : 8080;
+        int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+        long cacheBytes = (args.length > 5 ? Long.parseLong(args[5]) : 64) << 20;
+        long blockCacheBytes = (args.length > 6 ? Long.parseLong(args[6]) : 64) << 20;
+
+        IndexReader index = new IndexReader(args[0], args[1], blockCacheBytes);
+        QueryMetrics metrics = new QueryMetrics();
+        QueryAnalyzer analyzer = new QueryAnalyzer(index, threads, analyzerName, metrics);
+        ResultCache cache = cacheBytes > 0 ? new ResultCache(cacheBytes) : null;
+        QueryServer server = new QueryServer(analyzer, metrics, cache, port, threads);
+        System.out.println("Serving " + index.getNumberOfTerms() + " terms of " + index.getDocInfo().size() +
+                " documents on port " + server.getPort() + " with " + threads + " threads.");
+    }
+
+    /**
+     * @return the statistics of the block cache of the index in the Prometheus text format, empty if it has none
+     */
+    private String blockCacheMetrics() {
+        InvertedIndex index = this.analyzer.getIndex();
+        if (index instanceof IndexReader && ((IndexReader) index).getBlockCache() != null) {
+            return ((IndexReader) index).getBlockCache().toPrometheus();
+        }
+        return "";
+    }
+
+    /**
+     * @return port the server listens on
+     */
+    public int getPort() {
+        return this.server.getAddress().getPort();
+    }
+
+    /**
+     * Stops accepting queries and waits up to a second for the queries being answered.
+     */
+    public void stop() {
+        this.server.stop(1);
+        this.executor.shutdown();
+    }
+
+    private void search(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        Map<String, String> parameters;
+        try {
+            parameters = parameters(exchange.getRequestURI().getRawQuery());
+        } catch (IllegalArgumentException e) {
+            respond(exchange, 400, "text/plain", "Malformed query string: " + e.getMessage() + "\n");
+            return;
+        }
+        String text = parameters.get("q");
+        String weightFunction = parameters.getOrDefault("w", "w1");
+        String method = parameters.getOrDefault("method", "bmw");
+        int topK;
+        try {
+            topK = Integer.parseInt(parameters.getOrDefault("k", "10"));
+        } catch (NumberFormatException e) {
+            topK = -1;
+        }
+        if (text == null || topK < 0 || !(weightFunction.equals("w1") || weightFunction.equals("w2"))) {
+            respond(exchange, 400, "text/plain", "Expected q, and optionally k >= 0 and w = w1 or w2.\n");
+            return;
+        }
+
+        if (!(method.equals("vsm") || method.equals("wand") || method.equals("bmw"))) {
+            respond(exchange, 400, "text/plain", "Unknown method " + method + ", expected vsm, wand or bmw.\n");
+            return;
+        }
+
+        Map<Integer, Double> results;
+        try {
+            QueryParser query = this.analyzer.parse(text);
+            results = this.cache == null ? query.rank(method, topK, weightFunction) :
+                    this.cache.rank(query, method, topK, weightFunction);
+        } catch (RuntimeException e) {
+            respond(exchange, 500, "text/plain", "Query failed: " + e + "\n");
+            return;
+        }
+
+        long formatting = System.nanoTime();
+        StringBuilder body = new StringBuilder();
+        int rank = 1;
+        for (Map.Entry<Integer, Double> result : results.entrySet()) {
+            body.append(rank++).append('\t').append(result.getKey()).append('\t').append(result.getValue())
+                    .append('\n');
+        }
+        this.metrics.record(QueryMetrics.Stage.FORMATTING, System.nanoTime() - formatting);
+        respond(exchange, 200, "text/plain", body.toString());
+        this.metrics.recordQuery(System.nanoTime() - start);
+    }
+
+    /**
+     * @param query raw query string of a URI, may be null
+     * @return the decoded parameters, the last value of a parameter given several times
+     * @throws IllegalArgumentException if a parameter has a malformed escape
+     */
+    private static Map<String, String> parameters(String query) throws UnsupportedEncodingException {
+        Map<String, String> parameters = new HashMap<>();
+        if (query == null) {
+            return parameters;
+        }
+        for (String parameter : query.split("&")) {
+            int equals = parameter.indexOf('=');
+            if (equals > 0) {
+                parameters.put(URLDecoder.decode(parameter.substring(0, equals), "UTF-8"),
+                        URLDecoder.decode(parameter.substring(equals + 1), "UTF-8"));
+            }
+        }
+        return parameters;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType, String body)
+            throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
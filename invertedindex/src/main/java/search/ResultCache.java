@@ -0,0 +1,264 @@
+package search;
+
+import index.InvertedIndex;
+import util.FrequencySketch;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caches the top K documents of queries, so that a popular query is answered with a single lookup instead of being
+ * ranked again. Entries are keyed on the analyzed query, its terms and their term frequencies, with the weighting
+ * function and K: queries whose texts analyze to the same terms share an entry, and the ranking method is left out of
+ * the key because all methods of `QueryParser` return the same results.
+ * <p>
+ * The cache holds up to a maximum number of bytes, estimated from the number of terms and results of every entry. It
+ * evicts the least recently used entries, but only to admit a query that has been asked for more often than them,
+ * according to a `util.FrequencySketch` of the recent lookups (TinyLFU). A burst of queries that are asked for once
+ * therefore does not flush the popular queries out of the cache.
+ * <p>
+ * Results are only valid for the index they were ranked on. The cache remembers that index, and drops all entries when
+ * a query is ranked on another one, such as a new reader of a `index.SegmentedIndex` after documents have been added
+ * or deleted. All methods are thread safe; a lookup holds the lock of the cache, ranking on a miss does not.
+ */
+public class ResultCache {
+    /**
+     * Estimated heap size of an entry without its terms and results, and of a term and of a result.
+     */
+    private static final int BYTES_PER_ENTRY = 200;
+    private static final int BYTES_PER_TERM = 80;
+    private static final int BYTES_PER_RESULT = 80;
+
+    private final long maximumBytes;
+
+    /**
+     * Entries in order of access, the least recently used first.
+     */
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final FrequencySketch sketch;
+
+    private long bytes = 0;
+
+    /**
+     * Index the cached results were ranked on.
+     */
+    private InvertedIndex index;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * @param maximumBytes estimated heap size the entries of the cache may take
+     */
+    public ResultCache(long maximumBytes) {
+        this.maximumBytes = maximumBytes;
+        this.sketch = new FrequencySketch((int) Math.min(Integer.MAX_VALUE, maximumBytes / 512));
+    }
+
+    /**
+     * Ranks the documents for a query, or returns the cached results of an equal query.
+     *
+     * @param query          parsed query
+     * @param method         ranking method on a miss, "vsm", "wand" or "bmw", see `QueryParser.rank`
+     * @param topK           the top K documents to return
+     * @param weightFunction either "w1" or "w2"
+     * @return the top K documents relevant to the query, which must not be modified
+     */
+    public Map<Integer, Double> rank(QueryParser query, String method, int topK, String weightFunction) {
+        Key key = new Key(query.getQuery(), weightFunction.toLowerCase(Locale.ROOT), topK);
+        Map<Integer, Double> results = get(key, query.getIndex());
+        if (results != null) {
+            return results;
+        }
+        results = Collections.unmodifiableMap(query.rank(method, topK, weightFunction));
+        put(key, query.getIndex(), results);
+        return results;
+    }
+
+    private synchronized Map<Integer, Double> get(Key key, InvertedIndex index) {
+        if (index != this.index) {
+            if (this.index != null) {
+                this.invalidations.increment();
+            }
+            clear();
+            this.index = index;
+        }
+        this.sketch.increment(key.hashCode());
+        Entry entry = this.entries.get(key);
+        if (entry == null) {
+            this.misses.increment();
+            return null;
+        }
+        this.hits.increment();
+        return entry.results;
+    }
+
+    private synchronized void put(Key key, InvertedIndex index, Map<Integer, Double> results) {
+        // results of an index that was replaced while they were ranked are not cached
+        if (index != this.index || this.entries.containsKey(key)) {
+            return;
+        }
+        long size = BYTES_PER_ENTRY + BYTES_PER_TERM * key.query.getTerms().size() +
+                BYTES_PER_RESULT * results.size();
+        // the entries that have to go to make room must all have been asked for less often than the new query
+        int frequency = this.sketch.frequency(key.hashCode());
+        long free = this.maximumBytes - this.bytes;
+        int victims = 0;
+        for (Iterator<Map.Entry<Key, Entry>> i = this.entries.entrySet().iterator(); free < size; victims++) {
+            if (!i.hasNext()) {
+                // larger than the whole cache
+                this.rejections.increment();
+                return;
+            }
+            Map.Entry<Key, Entry> victim = i.next();
+            if (this.sketch.frequency(victim.getKey().hashCode()) >= frequency) {
+                this.rejections.increment();
+                return;
+            }
+            free += victim.getValue().size;
+        }
+        Iterator<Entry> i = this.entries.values().iterator();
+        for (int v = 0; v < victims; v++) {
+            this.bytes -= i.next().size;
+            i.remove();
+            this.evictions.increment();
+        }
+        this.entries.put(key, new Entry(results, size));
+        this.bytes += size;
+    }
+
+    /**
+     * Drops all entries.
+     */
+    public synchronized void invalidate() {
+        clear();
+        this.invalidations.increment();
+    }
+
+    private void clear() {
+        this.entries.clear();
+        this.bytes = 0;
+    }
+
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    /**
+     * @return number of entries evicted to admit other queries
+     */
+    public long getEvictions() {
+        return this.evictions.sum();
+    }
+
+    /**
+     * @return number of results that were not cached because the entries they would have replaced are more popular
+     */
+    public long getRejections() {
+        return this.rejections.sum();
+    }
+
+    /**
+     * @return number of times all entries were dropped, by `invalidate` or for a new index
+     */
+    public long getInvalidations() {
+        return this.invalidations.sum();
+    }
+
+    /**
+     * @return fraction of the lookups that were hits, 0 before the first lookup
+     */
+    public double getHitRatio() {
+        long hits = getHits();
+        long lookups = hits + getMisses();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * @return estimated heap size of the entries
+     */
+    public synchronized long getBytes() {
+        return this.bytes;
+    }
+
+    /**
+     * @return the statistics of the cache in the Prometheus text format
+     */
+    public String toPrometheus() {
+        return "# TYPE query_cache_hits_total counter\nquery_cache_hits_total " + getHits() + "\n" +
+                "# TYPE query_cache_misses_total counter\nquery_cache_misses_total " + getMisses() + "\n" +
+                "# TYPE query_cache_evictions_total counter\nquery_cache_evictions_total " + getEvictions() + "\n" +
+                "# TYPE query_cache_rejections_total counter\nquery_cache_rejections_total " + getRejections() + "\n" +
+                "# TYPE query_cache_invalidations_total counter\nquery_cache_invalidations_total " +
+                getInvalidations() + "\n" +
+                "# TYPE query_cache_entries gauge\nquery_cache_entries " + size() + "\n" +
+                "# TYPE query_cache_bytes gauge\nquery_cache_bytes " + getBytes() + "\n";
+    }
+
+    @Override
+    public String toString() {
+        return "search.ResultCache{" +
+                "size=" + size() +
+                ", bytes=" + getBytes() +
+                ", hits=" + getHits() +
+                ", misses=" + getMisses() +
+                ", evictions=" + getEvictions() +
+                ", rejections=" + getRejections() +
+                '}';
+    }
+
+    private static class Key {
+        private final Query query;
+        private final String weightFunction;
+        private final int topK;
+        private final int hash;
+
+        Key(Query query, String weightFunction, int topK) {
+            this.query = query;
+            this.weightFunction = weightFunction;
+            this.topK = topK;
+            this.hash = 31 * (31 * query.hashCode() + weightFunction.hashCode()) + topK;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return this.topK == key.topK && this.weightFunction.equals(key.weightFunction) &&
+                    this.query.equals(key.query);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+
+    private static class Entry {
+        private final Map<Integer, Double> results;
+        private final long size;
+
+        Entry(Map<Integer, Double> results, long size) {
+            this.results = results;
+            this.size = size;
+        }
+    }
+}
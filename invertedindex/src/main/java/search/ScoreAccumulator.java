@@ -0,0 +1,76 @@
+package search;
+
+/**
+ * Scores of the documents a term-at-a-time query has matched so far, in an array indexed by doc id. An accumulator is
+ * allocated once per thread and index, see `DocumentTable.accumulator`, and reused by all queries the thread runs:
+ * clearing it only resets the documents the previous query matched, so a query costs in proportion to its postings
+ * rather than to the size of the collection.
+ */
+class ScoreAccumulator {
+    private final double[] scores;
+
+    /**
+     * Doc ids with a score, in the order they were first seen.
+     */
+    private final int[] matched;
+
+    private final boolean[] isMatched;
+    private int numberOfMatches = 0;
+
+    /**
+     * @param size one more than the largest doc id
+     */
+    ScoreAccumulator(int size) {
+        this.scores = new double[size];
+        this.matched = new int[size];
+        this.isMatched = new boolean[size];
+    }
+
+    /**
+     * Adds to the score of a document.
+     *
+     * @param docId document id
+     * @param score partial score of the document
+     */
+    void add(int docId, double score) {
+        this.scores[docId] += score;
+        if (!this.isMatched[docId]) {
+            this.isMatched[docId] = true;
+            this.matched[this.numberOfMatches++] = docId;
+        }
+    }
+
+    /**
+     * @return number of documents with a score
+     */
+    int getNumberOfMatches() {
+        return this.numberOfMatches;
+    }
+
+    /**
+     * @param i index of a match, less than `getNumberOfMatches`
+     * @return doc id of the match
+     */
+    int getMatch(int i) {
+        return this.matched[i];
+    }
+
+    /**
+     * @param docId document id
+     * @return score of the document, 0 if it has not been matched
+     */
+    double getScore(int docId) {
+        return this.scores[docId];
+    }
+
+    /**
+     * Resets the scores of the matched documents.
+     */
+    void clear() {
+        for (int i = 0; i < this.numberOfMatches; i++) {
+            this.scores[this.matched[i]] = 0;
+            this.isMatched[this.matched[i]] = false;
+        }
+        this.numberOfMatches = 0;
+    }
+}
@@ -0,0 +1,126 @@
+package search;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the K documents with the highest scores in a fixed-size binary min-heap, so that the candidates never have to
+ * be sorted. The root of the heap is the worst document kept, a new document replaces it if it scores higher. Of two
+ * documents with the same score, the one with the lower doc id ranks higher.
+ */
+class TopK {
+    private final int[] docIds;
+    private final double[] scores;
+    private int size = 0;
+
+    TopK(int k) {
+        this.docIds = new int[k];
+        this.scores = new double[k];
+    }
+
+    /**
+     * Offers a document to the heap.
+     *
+     * @param docId document id
+     * @param score score of the document
+     */
+    void add(int docId, double score) {
+        if (this.size < this.docIds.length) {
+            this.docIds[this.size] = docId;
+            this.scores[this.size] = score;
+            siftUp(this.size++);
+        } else if (this.size > 0 && worse(this.docIds[0], this.scores[0], docId, score)) {
+            this.docIds[0] = docId;
+            this.scores[0] = score;
+            siftDown(0);
+        }
+    }
+
+    /**
+     * @return true if the heap holds K documents
+     */
+    boolean isFull() {
+        return this.size == this.docIds.length;
+    }
+
+    /**
+     * @return score of the worst document kept, a document has to score higher to be added once the heap is full
+     */
+    double worstScore() {
+        return this.scores[0];
+    }
+
+    /**
+     * Empties the heap. The documents are returned in decreasing order of their score.
+     *
+     * @return map of doc id to score, in rank order
+     */
+    Map<Integer, Double> toMap() {
+        int n = this.size;
+        int[] rankedDocIds = new int[n];
+        double[] rankedScores = new double[n];
+        // the root is the worst document, so the heap is emptied from the last rank to the first
+        for (int rank = n - 1; rank >= 0; rank--) {
+            rankedDocIds[rank] = this.docIds[0];
+            rankedScores[rank] = this.scores[0];
+            this.size--;
+            this.docIds[0] = this.docIds[this.size];
+            this.scores[0] = this.scores[this.size];
+            siftDown(0);
+        }
+        Map<Integer, Double> result = new LinkedHashMap<>();
+        for (int rank = 0; rank < n; rank++) {
+            result.put(rankedDocIds[rank], rankedScores[rank]);
+        }
+        return result;
+    }
+
+    /**
+     * @return true if document a ranks below document b
+     */
+    private static boolean worse(int a, double scoreA, int b, double scoreB) {
+        int cmp = Double.compare(scoreA, scoreB);
+        return cmp < 0 || (cmp == 0 && a > b);
+    }
+
+    private boolean worse(int i, int j) {
+        return worse(this.docIds[i], this.scores[i], this.docIds[j], this.scores[j]);
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!worse(i, parent)) {
+                break;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= this.size) {
+                break;
+            }
+            if (child + 1 < this.size && worse(child + 1, child)) {
+                child++;
+            }
+            if (!worse(child, i)) {
+                break;
+            }
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    private void swap(int i, int j) {
+        int docId = this.docIds[i];
+        this.docIds[i] = this.docIds[j];
+        this.docIds[j] = docId;
+        double score = this.scores[i];
+        this.scores[i] = this.scores[j];
+        this.scores[j] = score;
+    }
+}
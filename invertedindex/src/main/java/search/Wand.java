@@ -0,0 +1,241 @@
+package search;
+
+import index.BlockMaxima;
+import index.PostingsIterator;
+import index.Weighting;
+
+import java.util.List;
+
+/**
+ * Document-at-a-time evaluation of a query with dynamic pruning, WAND and optionally Block-Max WAND. The posting lists
+ * of the query terms are traversed in parallel in order of doc id. Every term has an upper bound on its contribution to
+ * the score of any document; a document is only scored if the upper bounds of the terms that can occur in it add up to
+ * more than the score of the K-th best document so far, the threshold. Block-Max WAND additionally checks the bounds of
+ * the blocks the document falls in, and skips to the end of the blocks if they are too low.
+ * <p>
+ * The scores of the documents that are scored are computed in the same way as `QueryParser.vectorSpaceModel`, and a
+ * document is only skipped if it can not make it to the top K, so the result is exactly the same.
+ */
+class Wand {
+    /**
+     * Bounds are multiplied by this factor so that rounding errors never push a bound below the score it bounds.
+     */
+    private static final double SLACK = 1 + 1e-9;
+
+    /**
+     * Cursors sorted by the doc id they are on.
+     */
+    private final Cursor[] cursors;
+
+    /**
+     * Cursors in order of the query terms, scores are summed in this order.
+     */
+    private final Cursor[] termOrder;
+
+    private final DocumentTable documents;
+    private final Weighting weighting;
+    private final boolean w1;
+    private final double queryLength;
+    private final boolean blockMax;
+
+    /**
+     * @param cursors        a cursor for every query term found in the index, in order of the query terms
+     * @param documents      document information of the index by doc id
+     * @param weighting      weighting functions of the index
+     * @param weightFunction either w1 or w2
+     * @param queryLength    length of the query vector
+     * @param blockMax       use the block bounds (Block-Max WAND), otherwise only the term bounds are used (WAND)
+     */
+    Wand(List<Cursor> cursors, DocumentTable documents, Weighting weighting, String weightFunction,
+         double queryLength, boolean blockMax) {
+        this.termOrder = cursors.toArray(new Cursor[0]);
+        this.cursors = cursors.toArray(new Cursor[0]);
+        this.documents = documents;
+        this.weighting = weighting;
+        this.w1 = weightFunction.equalsIgnoreCase("w1");
+        this.queryLength = queryLength;
+        this.blockMax = blockMax;
+        for (Cursor cursor : this.cursors) {
+            cursor.scale = cursor.wTQ / queryLength * SLACK;
+            cursor.maxima = cursor.blockMaxima.getMaxima(weightFunction);
+            cursor.upperBound = cursor.blockMaxima.getTermMaximum(weightFunction) * cursor.scale;
+        }
+    }
+
+    /**
+     * @param topK the top K documents to return
+     * @return the top K documents relevant to the query
+     */
+    TopK search(int topK) {
+        TopK top = new TopK(topK);
+        if (topK <= 0) {
+            return top;
+        }
+        // comparisons with the threshold use Double.compare, which puts NaN scores above all others like `TopK`
+        double threshold = Double.NEGATIVE_INFINITY;
+        for (Cursor cursor : this.cursors) {
+            cursor.postings.nextDoc();
+        }
+        sortCursors();
+        while (true) {
+            // the pivot is the first cursor at which the upper bounds add up to more than the threshold
+            int pivot = -1;
+            double bound = 0;
+            for (int i = 0; i < this.cursors.length; i++) {
+                if (this.cursors[i].postings.docId() == PostingsIterator.NO_MORE_DOCS) {
+                    break;
+                }
+                bound += this.cursors[i].upperBound;
+                if (Double.compare(bound, threshold) > 0) {
+                    pivot = i;
+                    break;
+                }
+            }
+            if (pivot < 0) {
+                break;
+            }
+            int pivotDoc = this.cursors[pivot].postings.docId();
+            while (pivot + 1 < this.cursors.length && this.cursors[pivot + 1].postings.docId() == pivotDoc) {
+                pivot++;
+            }
+
+            if (this.blockMax && !beatsThreshold(pivot, pivotDoc, threshold)) {
+                // no document before the end of the first of these blocks can make it to the top K
+                int next = pivot + 1 < this.cursors.length ? this.cursors[pivot + 1].postings.docId()
+                        : PostingsIterator.NO_MORE_DOCS;
+                for (int i = 0; i <= pivot; i++) {
+                    int blockEnd = this.cursors[i].blockEnd();
+                    if (blockEnd < next - 1) {
+                        next = blockEnd + 1;
+                    }
+                }
+                for (int i = 0; i <= pivot; i++) {
+                    this.cursors[i].postings.advance(next);
+                }
+            } else if (this.cursors[0].postings.docId() == pivotDoc) {
+                top.add(pivotDoc, score(pivotDoc));
+                if (top.isFull()) {
+                    threshold = top.worstScore();
+                }
+                for (int i = 0; i <= pivot; i++) {
+                    this.cursors[i].postings.nextDoc();
+                }
+            } else {
+                // documents before the pivot document can not make it to the top K
+                for (int i = 0; i < pivot; i++) {
+                    this.cursors[i].postings.advance(pivotDoc);
+                }
+            }
+            sortCursors();
+        }
+        return top;
+    }
+
+    /**
+     * Checks the bounds of the blocks the pivot document falls in.
+     *
+     * @return true if the block bounds add up to more than the threshold
+     */
+    private boolean beatsThreshold(int pivot, int pivotDoc, double threshold) {
+        double bound = 0;
+        for (int i = 0; i <= pivot; i++) {
+            bound += this.cursors[i].blockBound(pivotDoc);
+        }
+        return Double.compare(bound, threshold) > 0;
+    }
+
+    /**
+     * Scores a document, all cursors of terms that occur in it are on the document.
+     *
+     * @param docId document id
+     * @return cosine similarity of the document and the query
+     */
+    private double score(int docId) {
+        double score = 0.0;
+        for (Cursor cursor : this.termOrder) {
+            if (cursor.postings.docId() == docId) {
+                double wTD = this.documents.weight(this.weighting, this.w1, cursor.postings.tf(), cursor.df, docId);
+                score += wTD * cursor.wTQ;
+            }
+        }
+        return score / this.documents.norm(this.w1, docId) / this.queryLength;
+    }
+
+    /**
+     * Insertion sort by doc id, the number of cursors is small and they are nearly sorted.
+     */
+    private void sortCursors() {
+        for (int i = 1; i < this.cursors.length; i++) {
+            Cursor cursor = this.cursors[i];
+            int j = i - 1;
+            while (j >= 0 && this.cursors[j].postings.docId() > cursor.postings.docId()) {
+                this.cursors[j + 1] = this.cursors[j];
+                j--;
+            }
+            this.cursors[j + 1] = cursor;
+        }
+    }
+
+    /**
+     * The posting list of a query term with the bounds of its contribution to the score.
+     */
+    static class Cursor {
+        final PostingsIterator postings;
+        final BlockMaxima blockMaxima;
+        final int df;
+
+        /**
+         * Weight of the term in the query.
+         */
+        final double wTQ;
+
+        /**
+         * Converts a normalized weight of the term in a document to a bound of its contribution to the score.
+         */
+        double scale;
+
+        /**
+         * Block maxima for the weighting function.
+         */
+        float[] maxima;
+
+        /**
+         * Upper bound of the contribution of the term to the score of any document.
+         */
+        double upperBound;
+
+        /**
+         * Current block, only moves forward.
+         */
+        private int block = 0;
+
+        Cursor(PostingsIterator postings, BlockMaxima blockMaxima, int df, double wTQ) {
+            this.postings = postings;
+            this.blockMaxima = blockMaxima;
+            this.df = df;
+            this.wTQ = wTQ;
+        }
+
+        /**
+         * Moves to the block that would contain the document, without decoding postings.
+         *
+         * @param target doc id, never smaller than a previous target
+         * @return upper bound of the contribution of the term to the score of documents in the block, 0 if the posting
+         * list ends before the document
+         */
+        double blockBound(int target) {
+            while (this.block < this.maxima.length && this.blockMaxima.getLastDocId(this.block) < target) {
+                this.block++;
+            }
+            return this.block < this.maxima.length ? this.maxima[this.block] * this.scale : 0;
+        }
+
+        /**
+         * @return last doc id of the current block, `NO_MORE_DOCS` after the last block
+         */
+        int blockEnd() {
+            return this.block < this.maxima.length ? this.blockMaxima.getLastDocId(this.block)
+                    : PostingsIterator.NO_MORE_DOCS;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads a stream of bits written by `util.BitWriter` from a byte buffer, most significant bit first. Bits are consumed
+ * from a 64-bit window that is refilled a byte at a time, so the buffer may be a memory mapped file.
+ */
+public class BitReader {
+    private final ByteBuffer buffer;
+
+    /**
+     * Position of the next byte to load into the window.
+     */
+    private int position;
+
+    /**
+     * Buffered bits, the next bit to read is the most significant bit.
+     */
+    private long window = 0;
+
+    /**
+     * Number of valid bits in the window.
+     */
+    private int available = 0;
+
+    /**
+     * @param buffer   buffer to read from, only absolute reads are used so the buffer can be shared
+     * @param position byte position to start reading from
+     */
+    public BitReader(ByteBuffer buffer, int position) {
+        this.buffer = buffer;
+        this.position = position;
+    }
+
+    /**
+     * Moves the reader to a byte position, dropping the buffered bits.
+     *
+     * @param position byte position to continue reading from
+     */
+    public void seek(int position) {
+        this.position = position;
+        this.window = 0;
+        this.available = 0;
+    }
+
+    private void refill() {
+        int limit = buffer.limit();
+        while (available <= 56 && position < limit) {
+            window |= (buffer.get(position++) & 0xFFL) << (56 - available);
+            available += 8;
+        }
+    }
+
+    /**
+     * Reads `n` bits as an unsigned value.
+     *
+     * @param n number of bits, between 0 and 32
+     * @return value of the bits
+     */
+    public int readBits(int n) {
+        if (n == 0) {
+            return 0;
+        }
+        if (available < n) {
+            refill();
+            if (available < n) {
+                throw new IllegalStateException("Read past the end of the bit stream.");
+            }
+        }
+        int value = (int) (window >>> (64 - n));
+        window <<= n;
+        available -= n;
+        return value;
+    }
+
+    /**
+     * Reads a unary coded value: the number of one bits before the next zero bit.
+     *
+     * @return value read
+     */
+    public int readUnary() {
+        int n = 0;
+        while (true) {
+            if (available == 0) {
+                refill();
+                if (available == 0) {
+                    throw new IllegalStateException("Read past the end of the bit stream.");
+                }
+            }
+            int ones = Long.numberOfLeadingZeros(~window);
+            if (ones < available) {
+                // consume the ones and the terminating zero
+                window <<= ones;
+                window <<= 1;
+                available -= ones + 1;
+                return n + ones;
+            }
+            n += available;
+            window = 0;
+            available = 0;
+        }
+    }
+
+    /**
+     * Reads an Elias gamma coded value.
+     *
+     * @return value read, at least 1
+     */
+    public int readGamma() {
+        int offsetLength = readUnary();
+        return (1 << offsetLength) | readBits(offsetLength);
+    }
+
+    /**
+     * Reads an Elias delta coded value.
+     *
+     * @return value read, at least 1
+     */
+    public int readDelta() {
+        int offsetLength = readGamma() - 1;
+        return (1 << offsetLength) | readBits(offsetLength);
+    }
+}
@@ -0,0 +1,139 @@
+package util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Writes a stream of bits, most significant bit first, into a buffer of 64-bit words. Used to write gamma and delta
+ * coded posting lists without going through Strings or BitSets. The writer can be reset and reused for the next
+ * posting list.
+ */
+public class BitWriter {
+    private long[] words = new long[16];
+
+    /**
+     * Number of bits written so far.
+     */
+    private long bitCount = 0;
+
+    /**
+     * Writes the lowest `n` bits of `value`.
+     *
+     * @param value bits to write
+     * @param n     number of bits, between 0 and 64
+     */
+    public void writeBits(long value, int n) {
+        if (n == 0) {
+            return;
+        }
+        if (n < 64) {
+            value &= (1L << n) - 1;
+        }
+        int word = (int) (bitCount >>> 6);
+        int used = (int) (bitCount & 63);
+        ensureCapacity(word + 2);
+        int free = 64 - used;
+        if (n <= free) {
+            words[word] |= value << (free - n);
+        } else {
+            // split across two words
+            words[word] |= value >>> (n - free);
+            words[word + 1] |= value << (64 - (n - free));
+        }
+        bitCount += n;
+    }
+
+    /**
+     * Writes `n` one bits followed by a zero bit.
+     *
+     * @param n value to write in unary
+     */
+    public void writeUnary(int n) {
+        while (n >= 63) {
+            writeBits(-1L, 63);
+            n -= 63;
+        }
+        writeBits(((1L << n) - 1) << 1, n + 1);
+    }
+
+    /**
+     * Writes the Elias gamma code of `n`: the length of the offset in unary, followed by the offset, which is the
+     * binary representation of `n` without its leading one bit.
+     *
+     * @param n value to write, at least 1
+     */
+    public void writeGamma(int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException("Gamma codes are defined for positive integers, got " + n);
+        }
+        int offsetLength = 31 - Integer.numberOfLeadingZeros(n);
+        writeUnary(offsetLength);
+        writeBits(n, offsetLength);
+    }
+
+    /**
+     * Writes the Elias delta code of `n`: the length of the binary representation of `n` in gamma code, followed by
+     * the offset.
+     *
+     * @param n value to write, at least 1
+     */
+    public void writeDelta(int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException("Delta codes are defined for positive integers, got " + n);
+        }
+        int offsetLength = 31 - Integer.numberOfLeadingZeros(n);
+        writeGamma(offsetLength + 1);
+        writeBits(n, offsetLength);
+    }
+
+    /**
+     * Pads the stream with zero bits up to the next byte boundary.
+     */
+    public void alignToByte() {
+        bitCount = (bitCount + 7) & ~7L;
+    }
+
+    public long bitLength() {
+        return bitCount;
+    }
+
+    /**
+     * @return number of bytes needed to hold the bits written so far
+     */
+    public int byteLength() {
+        return (int) ((bitCount + 7) >>> 3);
+    }
+
+    /**
+     * Writes the bits to a stream, padding the last byte with zero bits.
+     *
+     * @param out stream to write to
+     * @throws IOException
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(toByteArray());
+    }
+
+    public byte[] toByteArray() {
+        byte[] result = new byte[byteLength()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (byte) (words[i >>> 3] >>> (56 - ((i & 7) << 3)));
+        }
+        return result;
+    }
+
+    /**
+     * Clears the buffer so the writer can be reused.
+     */
+    public void reset() {
+        Arrays.fill(words, 0, Math.min(words.length, (int) (bitCount >>> 6) + 1), 0L);
+        bitCount = 0;
+    }
+
+    private void ensureCapacity(int numberOfWords) {
+        if (numberOfWords > words.length) {
+            words = Arrays.copyOf(words, Math.max(numberOfWords, words.length * 2));
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package util;
+
+/**
+ * Estimates how often keys have been seen recently, for the TinyLFU admission policy of a cache: a new entry only
+ * replaces the entry the cache would evict if its key has been seen more often. The estimates come from a count-min
+ * sketch of 4-bit counters, four per key, sixteen to a `long`, so a few bytes per cached entry track the frequency of
+ * every key that was ever looked up, including the keys that are not cached. Estimates are never too low, and rarely
+ * too high when the sketch has about as many counters as the cache has entries.
+ * <p>
+ * All counters are halved once a number of keys proportional to the size of the sketch has been counted, so the
+ * estimates follow the recent popularity of the keys: a key that was popular once and is no longer asked for loses its
+ * advantage over new keys.
+ * <p>
+ * A sketch is not thread safe, its cache must hold a lock while using it.
+ */
+public class FrequencySketch {
+    private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL,
+            0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private final long[] table;
+    private final int tableMask;
+
+    /**
+     * Number of counted keys after which all counters are halved.
+     */
+    private final int sampleSize;
+
+    private int additions = 0;
+
+    /**
+     * @param expectedEntries number of entries the cache holds at most
+     */
+    public FrequencySketch(int expectedEntries) {
+        int size = Integer.highestOneBit(Math.max(16, Math.min(expectedEntries, 1 << 22)) - 1) << 1;
+        this.table = new long[size];
+        this.tableMask = size - 1;
+        this.sampleSize = 10 * size;
+    }
+
+    /**
+     * @return position of the counter of a key in a row of the sketch: the long in the table times 16 plus the counter
+     * in the long
+     */
+    private int counter(int hash, int row) {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        h ^= h >>> 29;
+        int index = (int) (h >>> 32) & this.tableMask;
+        return (index << 4) | ((int) h & 15);
+    }
+
+    /**
+     * @param hash hash code of a key
+     * @return estimated number of times the key has been counted recently, at most 15
+     */
+    public int frequency(int hash) {
+        int frequency = 15;
+        for (int row = 0; row < SEEDS.length; row++) {
+            int counter = counter(hash, row);
+            frequency = Math.min(frequency, (int) (this.table[counter >>> 4] >>> ((counter & 15) << 2)) & 15);
+        }
+        return frequency;
+    }
+
+    /**
+     * Counts a key.
+     *
+     * @param hash hash code of the key
+     */
+    public void increment(int hash) {
+        boolean added = false;
+        for (int row = 0; row < SEEDS.length; row++) {
+            int counter = counter(hash, row);
+            int shift = (counter & 15) << 2;
+            if (((this.table[counter >>> 4] >>> shift) & 15) < 15) {
+                this.table[counter >>> 4] += 1L << shift;
+                added = true;
+            }
+        }
+        if (added && ++this.additions == this.sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * Halves all counters.
+     */
+    private void reset() {
+        for (int i = 0; i < this.table.length; i++) {
+            this.table[i] = (this.table[i] >>> 1) & RESET_MASK;
+        }
+        this.additions /= 2;
+    }
+}
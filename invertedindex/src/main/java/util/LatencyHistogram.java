@@ -0,0 +1,115 @@
+package util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts latencies in log-linear buckets, like HdrHistogram, so that percentiles far in the tail can be read with a
+ * bounded relative error and a fixed amount of memory. Values below 128 have a bucket each; above, every power of two
+ * is split into 128 buckets, so a value is reported at most 1/128 (under 1%) above its real value. Values up to about
+ * 2^43 nanoseconds (2.4 hours) are counted exactly, larger values in the last bucket.
+ * <p>
+ * Recording is a few atomic increments and never allocates or locks, so a histogram can be shared by all threads.
+ * Reading a percentile while values are recorded may see some of them and not others.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_SHIFT = 36;
+
+    private final AtomicLongArray counts = new AtomicLongArray((MAX_SHIFT + 2) * SUB_BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param value value of at least 0, typically nanoseconds
+     * @return index of the bucket of the value
+     */
+    private static int bucket(long value) {
+        int magnitude = 63 - Long.numberOfLeadingZeros(value | 1);
+        if (magnitude < SUB_BUCKET_BITS) {
+            return (int) value;
+        }
+        int shift = magnitude - SUB_BUCKET_BITS;
+        if (shift > MAX_SHIFT) {
+            return (MAX_SHIFT + 2) * SUB_BUCKETS - 1;
+        }
+        // the sub bucket is in [SUB_BUCKETS, 2 * SUB_BUCKETS), so the buckets of consecutive shifts follow each other
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /**
+     * @param bucket index of a bucket
+     * @return largest value counted in the bucket
+     */
+    private static long highestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long subBucket = bucket - shift * SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * Counts a value.
+     *
+     * @param value value, negative values are counted as 0
+     */
+    public void record(long value) {
+        value = Math.max(0, value);
+        this.counts.incrementAndGet(bucket(value));
+        this.count.incrementAndGet();
+        this.sum.addAndGet(value);
+        long max = this.max.get();
+        while (value > max && !this.max.compareAndSet(max, value)) {
+            max = this.max.get();
+        }
+    }
+
+    /**
+     * @return number of values counted
+     */
+    public long getCount() {
+        return this.count.get();
+    }
+
+    /**
+     * @return sum of the values counted
+     */
+    public long getSum() {
+        return this.sum.get();
+    }
+
+    /**
+     * @return largest value counted, 0 if none has been
+     */
+    public long getMax() {
+        return this.max.get();
+    }
+
+    /**
+     * @param quantile quantile between 0 and 1, e.g. 0.99 for the 99th percentile
+     * @return the smallest value that at least this fraction of the values is not above, up to the resolution of the
+     * buckets and never above the largest value; 0 if no value has been counted
+     */
+    public long getValueAtQuantile(double quantile) {
+        long total = 0;
+        for (int i = 0; i < this.counts.length(); i++) {
+            total += this.counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(Math.min(1, Math.max(0, quantile)) * total));
+        long seen = 0;
+        for (int i = 0; i < this.counts.length(); i++) {
+            seen += this.counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestValue(i), getMax());
+            }
+        }
+        return getMax();
+    }
+}
@@ -6,8 +6,25 @@ import org.xml.sax.helpers.DefaultHandler;
 
 /**
  * Parses a document in the collection to extract only text fields and discard fields containing only numbers.
+ * <p>
+ * The characters reported by the parser are appended to the fields as they are, without copying them to a String
+ * first. When a `TextConsumer` is given, the text field is not materialized: its characters are passed on to the
+ * consumer as they are reported, and only the title field is kept. A handler can be reused for the next document after
+ * `reset`.
  */
 public class ParseXMLFile extends DefaultHandler {
+    /**
+     * Receives the characters of the text field, in the order they occur in the document.
+     */
+    public interface TextConsumer {
+        /**
+         * @param ch     characters reported by the parser, only valid during the call
+         * @param start  position of the characters in `ch`
+         * @param length number of characters
+         */
+        void accept(char[] ch, int start, int length);
+    }
+
     private boolean title = false;
     private boolean text = false;
     private boolean author = false;
@@ -16,6 +33,36 @@ public class ParseXMLFile extends DefaultHandler {
     private StringBuilder titleField = new StringBuilder();
     private StringBuilder textField = new StringBuilder();
 
+    /**
+     * Consumer of the text field, null if the text field is materialized.
+     */
+    private final TextConsumer textConsumer;
+
+    public ParseXMLFile() {
+        this(null);
+    }
+
+    /**
+     * Creates a handler that streams the text field instead of materializing it.
+     *
+     * @param textConsumer consumer of the text field, or null to materialize it
+     */
+    public ParseXMLFile(TextConsumer textConsumer) {
+        this.textConsumer = textConsumer;
+    }
+
+    /**
+     * Clears the fields, to parse the next document with the same handler.
+     */
+    public void reset() {
+        title = false;
+        text = false;
+        author = false;
+        biblio = false;
+        titleField.setLength(0);
+        textField.setLength(0);
+    }
+
     public StringBuilder getTitleField() {
         return titleField;
     }
@@ -66,20 +113,24 @@ public class ParseXMLFile extends DefaultHandler {
     @Override
     public void characters(char ch[], int start, int length) throws SAXException {
         if (title) {
-            String titleLine = new String(ch, start, length);
-            titleField.append(titleLine);
-            textField.append(titleLine);
+            titleField.append(ch, start, length);
+            appendText(ch, start, length);
         } else if (text) {
-            String textLine = new String(ch, start, length);
-            textField.append(textLine);
+            appendText(ch, start, length);
         } else if (biblio) {
-            String biblioLine = new String(ch, start, length);
-            textField.append(biblioLine);
+            appendText(ch, start, length);
         } else if (author) {
-            String authorLine = new String(ch, start, length);
-            textField.append(authorLine);
+            appendText(ch, start, length);
         } else {
             // ignore
         }
     }
+
+    private void appendText(char[] ch, int start, int length) {
+        if (textConsumer != null) {
+            textConsumer.accept(ch, start, length);
+        } else {
+            textField.append(ch, start, length);
+        }
+    }
 }
\ No newline at end of file
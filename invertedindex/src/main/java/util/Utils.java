@@ -1,14 +1,14 @@
 package util;
 
-import index.TermWeight;
+import index.BlockMaxima;
+import index.PostingsCodec;
+import index.PostingsEntry;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.BitSet;
-import java.util.LinkedHashMap;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Utility class with several helper functions to convert Java objects to bytes and other utility functions.
@@ -16,7 +16,8 @@ import java.util.Map;
 public class Utils {
     public static byte[] stringToFixedWidthBytes(String str, int width) {
         byte[] result = new byte[width];
-        System.arraycopy(str.getBytes(), 0, result, 0, str.length());
+        byte[] strBytes = str.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(strBytes, 0, result, 0, strBytes.length);
         return result;
     }
 
@@ -26,25 +27,6 @@ public class Utils {
         return s.substring(startIndex);
     }
 
-    public static String unary(final int i) {
-        // https://stackoverflow.com/a/4903603/2986835
-        String repeated = new String(new char[i]).replace("\0", "1");
-        return repeated + "0";
-    }
-
-    public static BitSet bitsetFromString(String binary) {
-        // https://stackoverflow.com/a/33386777/2986835
-        // r-l orientation
-        BitSet bitset = new BitSet(binary.length());
-        int len = binary.length();
-        for (int i = len - 1; i >= 0; i--) {
-            if (binary.charAt(i) == '1') {
-                bitset.set(len - i - 1);
-            }
-        }
-        return bitset;
-    }
-
     public static byte[] intToBytes(final int i) {
         ByteBuffer bb = ByteBuffer.allocate(4);
         bb.putInt(i);
@@ -70,80 +52,96 @@ public class Utils {
         return strings[0];
     }
 
-    public static String gammaCode(final int n) {
-        String binary = Integer.toBinaryString(n);
-        String offset = Utils.slice_start(binary, 1);
-        String length = Utils.unary(offset.length());
-        return length + offset;
-    }
-
-    public static String deltaCode(final int n) {
-        String binary = Integer.toBinaryString(n);
-        String offset = Utils.slice_start(binary, 1);
-        String length = gammaCode(binary.length());
-        return length + offset;
-    }
-
-    public static byte[] gapToBytes(final int gap, String code) {
-        BitSet bs;
-        String encodedGap;
-        if (code.equals("gamma")) {
-            encodedGap = gammaCode(gap);
-        } else {
-            encodedGap = deltaCode(gap);
-        }
-        bs = bitsetFromString(encodedGap);
-        byte[] bytes = new byte[(bs.length() + 7) / 8]; // https://stackoverflow.com/a/6197426/2986835
-        return bytes;
-    }
-
     /**
      * Converts posting list to bytes. Only uses term frequency.
      *
      * @param m posting list
      * @return byte representation
      */
-    public static byte[] postingListToBytes(LinkedHashMap<Integer, TermWeight> m) {
-        byte[] result = new byte[m.size() * 2 * 4];
-        for (Map.Entry<Integer, TermWeight> entry : m.entrySet()) {
-            byte[] docIdBytes = Utils.intToBytes(entry.getKey());
-            byte[] tfBytes = Utils.intToBytes(entry.getValue().getTf());
-            System.arraycopy(docIdBytes, 0, result, 0, docIdBytes.length);
-            System.arraycopy(tfBytes, 0, result, docIdBytes.length, tfBytes.length);
+    public static byte[] postingListToBytes(PostingsEntry m) {
+        ByteBuffer result = ByteBuffer.allocate(m.getDocumentFrequency() * 2 * 4);
+        for (int i = 0; i < m.getDocumentFrequency(); i++) {
+            result.putInt(m.getDocId(i));
+            result.putInt(m.getTf(i));
         }
-        return result;
+        return result.array();
     }
 
-    public static byte[] compressedPostingListToBytes(LinkedHashMap<Integer, TermWeight> m, String compressionCode)
-            throws IOException {
-        // https://stackoverflow.com/a/9133993/2986835
-        ByteArrayOutputStream outStream = new ByteArrayOutputStream();
-        int previousDocId = -1; // -1 means there is no previous doc id
-        // write compressed posting list for current term
-        for (Map.Entry<Integer, TermWeight> entry : m.entrySet()) {
-            // key is doc id and value is term frequency
-            byte[] docIdBytes;
-            if (previousDocId == -1) {  // first doc, so write doc id instead of gaps
-                docIdBytes = Utils.intToBytes(entry.getKey());
-            } else {    // write gaps
-                int gap = entry.getKey() - previousDocId;
-                docIdBytes = Utils.gapToBytes(gap, compressionCode);
+    /**
+     * Compresses a posting list. Doc ids are stored as gaps, the first doc id as the gap from 0, and are encoded
+     * together with the term frequencies by the codec.
+     * <p>
+     * The list is split into blocks of `BlockMaxima.BLOCK_SIZE` postings, the same blocks the block maxima are kept
+     * for. Every block is padded to a whole number of bytes, and its first gap is from the last doc id of the previous
+     * block. If there is more than one block, the list starts with a skip table with the byte offset and the last doc
+     * id of every block, 4 bytes each, offsets counted from the end of the skip table. A reader can then jump to the
+     * block that contains a doc id without decoding the blocks before it.
+     *
+     * @param m      posting list
+     * @param codec  codec to encode the blocks with
+     * @param writer writer to encode the bits with, reset before use
+     * @return byte representation
+     */
+    public static byte[] compressedPostingListToBytes(PostingsEntry m, PostingsCodec codec, BitWriter writer) {
+        int numberOfBlocks = (m.getDocumentFrequency() + BlockMaxima.BLOCK_SIZE - 1) / BlockMaxima.BLOCK_SIZE;
+        ByteBuffer skipTable = ByteBuffer.allocate(numberOfBlocks > 1 ? 8 * numberOfBlocks : 0);
+        int[] gaps = new int[BlockMaxima.BLOCK_SIZE];
+        int[] tfs = new int[BlockMaxima.BLOCK_SIZE];
+        writer.reset();
+        int previousDocId = 0;
+        int length = 0;
+        for (int i = 0; i < m.getDocumentFrequency(); i++) {
+            gaps[length] = m.getDocId(i) - previousDocId;
+            tfs[length] = m.getTf(i);
+            length++;
+            previousDocId = m.getDocId(i); // update previous doc id for next iteration
+            if (length == BlockMaxima.BLOCK_SIZE) {
+                writeBlock(gaps, tfs, length, previousDocId, numberOfBlocks, codec, skipTable, writer);
+                length = 0;
             }
-            byte[] tfBytes = Utils.intToBytes(entry.getValue().getTf());
-            outStream.write(docIdBytes);
-            outStream.write(tfBytes);
-            previousDocId = entry.getKey(); // update previous doc id for next iteration
         }
-        return outStream.toByteArray();
+        if (length > 0) {
+            writeBlock(gaps, tfs, length, previousDocId, numberOfBlocks, codec, skipTable, writer);
+        }
+        ByteBuffer result = ByteBuffer.allocate(skipTable.capacity() + writer.byteLength());
+        result.put(skipTable.array());
+        result.put(writer.toByteArray());
+        return result.array();
+    }
+
+    private static void writeBlock(int[] gaps, int[] tfs, int length, int lastDocId, int numberOfBlocks,
+                                   PostingsCodec codec, ByteBuffer skipTable, BitWriter writer) {
+        if (numberOfBlocks > 1) {
+            skipTable.putInt(writer.byteLength());
+            skipTable.putInt(lastDocId);
+        }
+        codec.encodeBlock(gaps, tfs, length, writer);
+        writer.alignToByte();
+    }
+
+    /**
+     * Marks a term length in the dictionary that does not fit in a byte, the length follows in 4 bytes.
+     */
+    public static final int LONG_TERM_LENGTH = 0xFF;
+
+    /**
+     * Writes the length of a term in the dictionary: in a byte, since terms are short, or as `LONG_TERM_LENGTH`
+     * followed by the length in 4 bytes.
+     */
+    private static void writeTermLength(ByteArrayOutputStream outStream, int length) throws IOException {
+        if (length < LONG_TERM_LENGTH) {
+            outStream.write(length);
+        } else {
+            outStream.write(LONG_TERM_LENGTH);
+            outStream.write(intToBytes(length));
+        }
     }
 
     public static byte[] blockOfTermsToBytes(List<String> block) throws IOException {
         ByteArrayOutputStream outStream = new ByteArrayOutputStream();
         for (String term : block) {
-            byte len = (byte) term.length();    // max length around 25
-            byte[] lenBytes = ByteBuffer.allocate(1).put(len).array();  // store length of term
-            byte[] termBytes = term.getBytes();
-            outStream.write(lenBytes);
+            byte[] termBytes = term.getBytes(StandardCharsets.UTF_8);
+            writeTermLength(outStream, termBytes.length);
             outStream.write(termBytes);
         }
         return outStream.toByteArray();
@@ -155,25 +153,21 @@ public class Utils {
         int prefixLength = commonPrefix.length();
         for (int i = 0; i < block.size(); i++) {
             // for the first term, write prefix followed by a *
-            byte len;
-            byte[] lenBytes;
+            int len;
             byte[] termBytes;
             if (i == 0) {
-                len = (byte) block.get(i).length();
                 termBytes = new String(commonPrefix + "*" +  // * marks end of prefix
-                        Utils.slice_start(block.get(i), prefixLength)).getBytes();
+                        Utils.slice_start(block.get(i), prefixLength)).getBytes(StandardCharsets.UTF_8);
+                len = termBytes.length - 1;    // length of the term, without the *
             } else {
                 String extraCharacters = "|" + Utils.slice_start(block.get(i), prefixLength); // after stripping prefix
-                len = (byte) extraCharacters.length();
-                termBytes = extraCharacters.getBytes();
+                termBytes = extraCharacters.getBytes(StandardCharsets.UTF_8);
+                len = termBytes.length;
             }
 
-            lenBytes = ByteBuffer.allocate(1).put(len).array();
-            outStream.write(lenBytes);
+            writeTermLength(outStream, len);
             outStream.write(termBytes);
         }
         return outStream.toByteArray();
     }
-
-
 }